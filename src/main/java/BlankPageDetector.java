@@ -0,0 +1,67 @@
+import java.io.IOException;
+
+/**
+ * Detects blank filler pages (white, black or any single color) on a reduced version of
+ * the page: the DC coefficients of the luma blocks for JPEGs, a subsampled decode for other
+ * formats. A page is blank when its luminance barely varies and almost all of its samples
+ * have the color of the page.
+ */
+class BlankPageDetector {
+
+    // Longest side of the subsampled decode
+    private static final int SAMPLED_SIDE = 512;
+    // Largest standard deviation of the luminance of a blank page (scan and compression noise)
+    private static final int MAX_DEVIATION = 8;
+    // Luminance difference from the page color making a sample content
+    private static final int CONTENT_DELTA = 24;
+    // At most one sample in this many may be content (dust, specks), so a single line of text is kept
+    private static final int CONTENT_DIVISOR = 2000;
+
+    private BlankPageDetector() {
+    }
+
+    /**
+     * Tells whether an encoded page is blank.
+     */
+    static boolean isBlank(byte[] bytes) throws IOException {
+        int[][] luma = ImageCodecs.readLuminance(bytes, SAMPLED_SIDE);
+        if (luma == null) {
+            return false;
+        }
+        int[] histogram = new int[256];
+        for (int[] row : luma) {
+            RasterKernels.addToHistogram(row, row.length, histogram);
+        }
+        return isBlank(histogram);
+    }
+
+    private static boolean isBlank(int[] histogram) {
+        long samples = 0;
+        long sum = 0;
+        long squares = 0;
+        int pageColor = 0;
+        for (int value = 0; value < 256; value++) {
+            long count = histogram[value];
+            samples += count;
+            sum += count * value;
+            squares += count * value * value;
+            if (histogram[value] > histogram[pageColor]) {
+                pageColor = value;
+            }
+        }
+        if (samples == 0) {
+            return false;
+        }
+        // Variance = mean of the squares - square of the mean, compared without dividing
+        if (squares * samples - sum * sum > (long) MAX_DEVIATION * MAX_DEVIATION * samples * samples) {
+            return false;
+        }
+        long content = 0;
+        for (int value = 0; value < 256; value++) {
+            if (Math.abs(value - pageColor) > CONTENT_DELTA) {
+                content += histogram[value];
+            }
+        }
+        return content <= samples / CONTENT_DIVISOR;
+    }
+}
@@ -0,0 +1,199 @@
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+/**
+ * Finds the content of a page inside its scan borders: each edge is scanned inward, one
+ * row or column at a time, until the first line holding content. Borders are usually a few
+ * dozen lines, so only a thin frame of the page is ever looked at.
+ */
+class BorderTrimmer {
+
+    // Luminance difference from the border color making a pixel content
+    private static final int CONTENT_DELTA = 48;
+    // Pixels sampled along each line
+    private static final int MAX_SAMPLES = 512;
+    // A line holds content once more than this fraction of its samples differ (dust and specks are ignored)
+    private static final int NOISE_DIVISOR = 200;
+
+    /**
+     * Luminance lines of a page, in any unit (pixels or blocks).
+     */
+    private interface LuminanceGrid {
+        int width();
+
+        int height();
+
+        int row(int y, int[] luma);
+
+        int column(int x, int[] luma);
+    }
+
+    private BorderTrimmer() {
+    }
+
+    /**
+     * Finds the content of a decoded page.
+     *
+     * @return The area inside the borders, or null if there is no border to trim (or only
+     *         borders, on a blank page)
+     */
+    static Rectangle findContent(BufferedImage img) {
+        int stepX = Math.max(1, img.getWidth() / MAX_SAMPLES);
+        int stepY = Math.max(1, img.getHeight() / MAX_SAMPLES);
+        return findContent(new LuminanceGrid() {
+            public int width() {
+                return img.getWidth();
+            }
+
+            public int height() {
+                return img.getHeight();
+            }
+
+            public int row(int y, int[] luma) {
+                return RasterKernels.luminanceRow(img, y, stepX, luma);
+            }
+
+            public int column(int x, int[] luma) {
+                return RasterKernels.luminanceColumn(img, x, stepY, luma);
+            }
+        });
+    }
+
+    /**
+     * Finds the content of an area of a JPEG from the DC coefficients of its luma blocks,
+     * without decoding it. The top and left edges are moved to MCU boundaries, so the result
+     * can be cropped losslessly, but never outside the area (which would bring back pixels
+     * cropped away) nor into the content.
+     *
+     * @param area The area to trim, anywhere in the image
+     * @return The area inside the borders, or null if there is no border to trim or its
+     *         edges cannot fall on MCU boundaries (the page must then be trimmed on its pixels)
+     */
+    static Rectangle findContent(LosslessJpeg jpeg, Rectangle area) {
+        int[][] blocks = jpeg.getLumaBlocks();
+        if (blocks == null) {
+            return null;
+        }
+        int blockWidth = jpeg.getLumaBlockWidth();
+        int blockHeight = jpeg.getLumaBlockHeight();
+        int firstColumn = area.x / blockWidth;
+        int firstRow = area.y / blockHeight;
+        int columns = Math.min(blocks[0].length, (area.x + area.width + blockWidth - 1) / blockWidth) - firstColumn;
+        int rows = Math.min(blocks.length, (area.y + area.height + blockHeight - 1) / blockHeight) - firstRow;
+        Rectangle content = findContent(new LuminanceGrid() {
+            public int width() {
+                return columns;
+            }
+
+            public int height() {
+                return rows;
+            }
+
+            public int row(int y, int[] luma) {
+                System.arraycopy(blocks[firstRow + y], firstColumn, luma, 0, columns);
+                return columns;
+            }
+
+            public int column(int x, int[] luma) {
+                for (int y = 0; y < rows; y++) {
+                    luma[y] = blocks[firstRow + y][firstColumn + x];
+                }
+                return rows;
+            }
+        });
+        if (content == null) {
+            return null;
+        }
+        // Block positions are relative to the block grid, which starts at or before the area
+        int originX = firstColumn * blockWidth;
+        int originY = firstRow * blockHeight;
+        int left = snapToMcu(area.x, Math.max(area.x, originX + content.x * blockWidth), jpeg.getMcuWidth());
+        int top = snapToMcu(area.y, Math.max(area.y, originY + content.y * blockHeight), jpeg.getMcuHeight());
+        if (left < 0 || top < 0) {
+            return null;
+        }
+        int right = Math.min(area.x + area.width, originX + (content.x + content.width) * blockWidth);
+        int bottom = Math.min(area.y + area.height, originY + (content.y + content.height) * blockHeight);
+        if (right <= left || bottom <= top
+                || (left == area.x && top == area.y && right == area.x + area.width && bottom == area.y + area.height)) {
+            return null;
+        }
+        return new Rectangle(left, top, right - left, bottom - top);
+    }
+
+    /**
+     * Moves the first content position of an edge to an MCU boundary: back into the border if
+     * that stays inside the area, otherwise forward if that only removes border.
+     *
+     * @param start First position of the area
+     * @return The position, or -1 if no MCU boundary lies between the area start and the content
+     */
+    private static int snapToMcu(int start, int content, int mcuSize) {
+        int down = content / mcuSize * mcuSize;
+        if (down >= start) {
+            return down;
+        }
+        int up = (start + mcuSize - 1) / mcuSize * mcuSize;
+        return up <= content ? up : -1;
+    }
+
+    private static Rectangle findContent(LuminanceGrid grid) {
+        int width = grid.width();
+        int height = grid.height();
+        int[] luma = new int[Math.max(width, height)];
+
+        int top = 0;
+        int[] reference = new int[1];
+        if (isBorder(grid.row(0, luma), luma, reference)) {
+            top = 1;
+            while (top < height && !hasContent(grid.row(top, luma), luma, reference[0])) {
+                top++;
+            }
+            if (top == height) {
+                // Nothing but border: a blank page, left as it is
+                return null;
+            }
+        }
+        int bottom = height;
+        if (isBorder(grid.row(height - 1, luma), luma, reference)) {
+            bottom = height - 1;
+            while (bottom > top + 1 && !hasContent(grid.row(bottom - 1, luma), luma, reference[0])) {
+                bottom--;
+            }
+        }
+        int left = 0;
+        if (isBorder(grid.column(0, luma), luma, reference)) {
+            left = 1;
+            while (left < width - 1 && !hasContent(grid.column(left, luma), luma, reference[0])) {
+                left++;
+            }
+        }
+        int right = width;
+        if (isBorder(grid.column(width - 1, luma), luma, reference)) {
+            right = width - 1;
+            while (right > left + 1 && !hasContent(grid.column(right - 1, luma), luma, reference[0])) {
+                right--;
+            }
+        }
+        if (left == 0 && top == 0 && right == width && bottom == height) {
+            return null;
+        }
+        return new Rectangle(left, top, right - left, bottom - top);
+    }
+
+    /**
+     * Tells whether the outermost line of an edge is a border, and gives its color.
+     */
+    private static boolean isBorder(int count, int[] luma, int[] reference) {
+        long sum = 0;
+        for (int i = 0; i < count; i++) {
+            sum += luma[i];
+        }
+        reference[0] = (int) (sum / Math.max(1, count));
+        return !hasContent(count, luma, reference[0]);
+    }
+
+    private static boolean hasContent(int count, int[] luma, int reference) {
+        return RasterKernels.countDifferent(luma, count, reference, CONTENT_DELTA) > count / NOISE_DIVISOR;
+    }
+}
@@ -0,0 +1,65 @@
+import java.awt.Dimension;
+
+/**
+ * Screens of reading devices, in portrait orientation, that output pages can be downscaled
+ * to: pixels beyond the screen are never seen, but still stored, transferred and decoded
+ * on every page turn.
+ */
+class DeviceProfile {
+
+    // In the order of the settings list, the first one leaving pages at their original size
+    static final DeviceProfile[] PROFILES = {
+        new DeviceProfile("Original size", 0, 0),
+        new DeviceProfile("Kobo Clara (1072x1448)", 1072, 1448),
+        new DeviceProfile("Kindle Paperwhite (1236x1648)", 1236, 1648),
+        new DeviceProfile("Kindle Oasis, Kobo Libra (1264x1680)", 1264, 1680),
+        new DeviceProfile("Tablet (1200x1600)", 1200, 1600),
+        new DeviceProfile("Kindle Scribe (1860x2480)", 1860, 2480),
+        new DeviceProfile("Large tablet (1600x2560)", 1600, 2560),
+    };
+
+    final String name;
+    final int maxWidth;
+    final int maxHeight;
+
+    private DeviceProfile(String name, int maxWidth, int maxHeight) {
+        this.name = name;
+        this.maxWidth = maxWidth;
+        this.maxHeight = maxHeight;
+    }
+
+    /**
+     * The profile at the given index of the settings list, or null for the original size.
+     */
+    static DeviceProfile get(int index) {
+        return index > 0 && index < PROFILES.length ? PROFILES[index] : null;
+    }
+
+    static String[] names() {
+        String[] names = new String[PROFILES.length];
+        for (int i = 0; i < PROFILES.length; i++) {
+            names[i] = PROFILES[i].name;
+        }
+        return names;
+    }
+
+    /**
+     * Tells whether an image of this size is larger than the screen.
+     */
+    boolean exceeds(int width, int height) {
+        return width > maxWidth || height > maxHeight;
+    }
+
+    /**
+     * The size of an image downscaled to fit the screen, keeping its aspect ratio.
+     *
+     * @return The downscaled size, or null if the image already fits
+     */
+    Dimension fit(int width, int height) {
+        if (!exceeds(width, height)) {
+            return null;
+        }
+        double scale = Math.min((double) maxWidth / width, (double) maxHeight / height);
+        return new Dimension(Math.max(1, (int) Math.round(width * scale)), Math.max(1, (int) Math.round(height * scale)));
+    }
+}
@@ -0,0 +1,134 @@
+import java.awt.Dimension;
+import java.util.Arrays;
+
+/**
+ * Decides which pages of a volume are double pages to split (auto-detect split mode), from
+ * the header dimensions of all its pages. Pages are compared to the typical single page of
+ * the volume, the median aspect ratio of its portrait pages, so volumes mixing resolutions
+ * are classified the same way as uniform ones:
+ * <ul>
+ *   <li>a page about twice as wide as a single page (for its height) is a double page,
+ *       unless it is much shorter than a single page (banners, credits)</li>
+ *   <li>in a volume scanned as single pages, short runs of double pages are spreads drawn
+ *       across two pages and kept whole; longer runs, and every double page of a volume
+ *       scanned as double pages, are split</li>
+ * </ul>
+ * The decisions only depend on the dimensions, never on the processing order.
+ */
+class DoublePageClassifier {
+
+    // A page is a double page from this many times the aspect ratio of a single page
+    // (between one and two pages wide)
+    private static final double DOUBLE_ASPECT_FACTOR = 1.5;
+    // Pages shorter than this fraction of a single page are never split
+    private static final double MIN_HEIGHT_FACTOR = 1.0 / 3;
+    // Runs of double pages at least this long are split even among single pages
+    private static final int MIN_SPLIT_RUN = 3;
+
+    private final boolean[] split;
+    private final double singleAspect;
+    private final int singleHeight;
+    private int spreadsKept = 0;
+
+    /**
+     * Classifies the pages of a volume.
+     *
+     * @param sizes Dimensions of each page after cropping, null for the pages not to be
+     *              classified (unreadable pages and exceptions), which also do not interrupt runs
+     */
+    DoublePageClassifier(Dimension[] sizes) {
+        split = new boolean[sizes.length];
+
+        // Typical single page: median aspect ratio and height of the portrait pages
+        int portraitCount = 0;
+        for (Dimension size : sizes) {
+            if (size != null && size.width <= size.height) {
+                portraitCount++;
+            }
+        }
+        double[] aspects = new double[portraitCount];
+        int[] heights = new int[portraitCount];
+        int n = 0;
+        for (Dimension size : sizes) {
+            if (size != null && size.width <= size.height) {
+                aspects[n] = (double) size.width / size.height;
+                heights[n] = size.height;
+                n++;
+            }
+        }
+        Arrays.sort(aspects);
+        Arrays.sort(heights);
+        singleAspect = portraitCount > 0 ? aspects[portraitCount / 2] : 0;
+        singleHeight = portraitCount > 0 ? heights[portraitCount / 2] : 0;
+
+        boolean[] doubles = new boolean[sizes.length];
+        int doubleCount = 0;
+        for (int i = 0; i < sizes.length; i++) {
+            if (sizes[i] != null && isDoublePage(sizes[i])) {
+                doubles[i] = true;
+                doubleCount++;
+            }
+        }
+
+        // Runs of double pages, only broken by single pages
+        boolean scannedAsDoubles = doubleCount >= portraitCount;
+        int runStart = -1;
+        int runLength = 0;
+        for (int i = 0; i <= sizes.length; i++) {
+            if (i < sizes.length && sizes[i] == null) {
+                continue;
+            }
+            if (i < sizes.length && doubles[i]) {
+                if (runLength++ == 0) {
+                    runStart = i;
+                }
+                continue;
+            }
+            if (runLength > 0) {
+                boolean splitRun = scannedAsDoubles || runLength >= MIN_SPLIT_RUN;
+                for (int j = runStart; j < i; j++) {
+                    split[j] = doubles[j] && splitRun;
+                }
+                if (!splitRun) {
+                    spreadsKept += runLength;
+                }
+                runLength = 0;
+            }
+        }
+    }
+
+    /**
+     * Tells whether a page is to be split.
+     */
+    boolean shouldSplit(int index) {
+        return split[index];
+    }
+
+    /**
+     * Number of double pages kept whole as spreads.
+     */
+    int getSpreadsKept() {
+        return spreadsKept;
+    }
+
+    /**
+     * Describes the typical single page the pages were compared to.
+     */
+    String describeSinglePage() {
+        return singleHeight > 0
+               ? String.format("%.2f aspect ratio, %d px high", singleAspect, singleHeight)
+               : "none, every page is wide";
+    }
+
+    private boolean isDoublePage(Dimension size) {
+        if (size.width <= size.height) {
+            return false;
+        }
+        if (singleHeight == 0) {
+            // No single page to compare to: every wide page is a double page
+            return true;
+        }
+        double aspect = (double) size.width / size.height;
+        return aspect >= singleAspect * DOUBLE_ASPECT_FACTOR && size.height >= singleHeight * MIN_HEIGHT_FACTOR;
+    }
+}
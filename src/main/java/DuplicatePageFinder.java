@@ -0,0 +1,164 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds pages appearing more than once in a volume, even at different resolutions, from a
+ * perceptual hash of each page: whether the luminance increases between neighboring cells
+ * of a 9x8 grid horizontally and of an 8x9 grid vertically, 128 bits in all.
+ * Similar pages are looked up through an index of the 8-bit bands of their hash, so the
+ * search stays close to linear in the number of pages instead of comparing all pairs.
+ */
+class DuplicatePageFinder {
+
+    // Longest side of the subsampled decode the hash is computed on
+    private static final int SAMPLED_SIDE = 256;
+    private static final int BANDS = 16;
+    // Largest number of differing bits between the hashes of two copies of a page (resampling,
+    // compression). Below the number of bands, copies always share at least one band exactly.
+    private static final int MAX_DISTANCE = BANDS - 1;
+    // Largest relative difference between the aspect ratios of two copies
+    private static final double MAX_ASPECT_DIFFERENCE = 0.03;
+    // Smallest luminance range over the hash grid: flatter pages have no reliable hash
+    private static final int MIN_CONTRAST = 16;
+
+    private final long[][] hashes;
+    private final double[] aspects;
+
+    DuplicatePageFinder(int pageCount) {
+        hashes = new long[pageCount][];
+        aspects = new double[pageCount];
+    }
+
+    /**
+     * Computes the hash of an encoded page.
+     *
+     * @return The hash, or null if the page cannot be decoded or is too flat to be compared
+     */
+    static long[] hash(byte[] bytes) throws IOException {
+        int[][] luma = ImageCodecs.readLuminance(bytes, SAMPLED_SIDE);
+        if (luma == null || luma.length < 9 || luma[0].length < 9) {
+            return null;
+        }
+        int[][] wide = resample(luma, 9, 8);
+        int[][] tall = resample(luma, 8, 9);
+        int min = 255;
+        int max = 0;
+        long horizontal = 0;
+        long vertical = 0;
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 8; x++) {
+                horizontal = (horizontal << 1) | (wide[y][x] < wide[y][x + 1] ? 1 : 0);
+                vertical = (vertical << 1) | (tall[y][x] < tall[y + 1][x] ? 1 : 0);
+                min = Math.min(min, wide[y][x]);
+                max = Math.max(max, wide[y][x]);
+            }
+        }
+        return max - min >= MIN_CONTRAST ? new long[]{horizontal, vertical} : null;
+    }
+
+    /**
+     * Records a page to compare.
+     *
+     * @param hash Its hash, or null to leave it out
+     */
+    void add(int index, long[] hash, int width, int height) {
+        hashes[index] = hash;
+        aspects[index] = (double) width / Math.max(1, height);
+    }
+
+    /**
+     * Groups the copies of each page and keeps the first of them, so the reading order and
+     * the names of the kept pages stay those of the volume.
+     *
+     * @return For each page, the index of the copy kept instead of it, or -1 if it is kept
+     */
+    int[] findDuplicates() {
+        int[] group = new int[hashes.length];
+        List<List<Integer>> groups = new ArrayList<>();
+        Map<Long, List<Integer>> index = new HashMap<>();
+        for (int i = 0; i < hashes.length; i++) {
+            group[i] = -1;
+            if (hashes[i] == null) {
+                continue;
+            }
+            // Candidates share at least one band with this page, the first close enough is taken
+            for (int band = 0; band < BANDS && group[i] < 0; band++) {
+                List<Integer> candidates = index.get(bandKey(hashes[i], band));
+                if (candidates == null) {
+                    continue;
+                }
+                for (int candidate : candidates) {
+                    if (isCopy(i, candidate)) {
+                        group[i] = group[candidate];
+                        groups.get(group[i]).add(i);
+                        break;
+                    }
+                }
+            }
+            if (group[i] < 0) {
+                group[i] = groups.size();
+                List<Integer> members = new ArrayList<>();
+                members.add(i);
+                groups.add(members);
+                // Only the first page of each group is indexed, the others are compared to it
+                for (int band = 0; band < BANDS; band++) {
+                    index.computeIfAbsent(bandKey(hashes[i], band), k -> new ArrayList<>()).add(i);
+                }
+            }
+        }
+
+        int[] keptInstead = new int[hashes.length];
+        for (int i = 0; i < keptInstead.length; i++) {
+            keptInstead[i] = -1;
+        }
+        for (List<Integer> members : groups) {
+            // Members are added in page order, the first one is the earliest copy
+            int kept = members.get(0);
+            for (int member : members) {
+                if (member != kept) {
+                    keptInstead[member] = kept;
+                }
+            }
+        }
+        return keptInstead;
+    }
+
+    private boolean isCopy(int a, int b) {
+        int distance = Long.bitCount(hashes[a][0] ^ hashes[b][0]) + Long.bitCount(hashes[a][1] ^ hashes[b][1]);
+        return distance <= MAX_DISTANCE
+               && Math.abs(aspects[a] - aspects[b]) <= MAX_ASPECT_DIFFERENCE * Math.max(aspects[a], aspects[b]);
+    }
+
+    private static long bandKey(long[] hash, int band) {
+        long bits = (hash[band / 8] >>> ((band % 8) * 8)) & 0xFF;
+        return ((long) band << 8) | bits;
+    }
+
+    /**
+     * Averages the luminance values over a grid of the given number of cells.
+     */
+    private static int[][] resample(int[][] luma, int columns, int rows) {
+        int height = luma.length;
+        int width = luma[0].length;
+        int[][] cells = new int[rows][columns];
+        for (int row = 0; row < rows; row++) {
+            int top = row * height / rows;
+            int bottom = (row + 1) * height / rows;
+            for (int column = 0; column < columns; column++) {
+                int left = column * width / columns;
+                int right = (column + 1) * width / columns;
+                long sum = 0;
+                for (int y = top; y < bottom; y++) {
+                    for (int x = left; x < right; x++) {
+                        sum += luma[y][x];
+                    }
+                }
+                cells[row][column] = (int) (sum / Math.max(1, (long) (bottom - top) * (right - left)));
+            }
+        }
+        return cells;
+    }
+}
@@ -0,0 +1,84 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * Reduces pages to the 16 gray levels of e-ink displays, as 4-bit indexed images. The
+ * luminance is dithered with an 8x8 ordered (Bayer) matrix: each pixel only depends on its
+ * own value and position, so the loop has no dependency between pixels and no error is
+ * carried across split or slice cuts. Pure white, pure black and the other levels stay flat.
+ */
+class EinkQuantizer {
+
+    private static final int LEVELS = 16;
+
+    private static final IndexColorModel PALETTE = grayPalette();
+    // 8x8 Bayer matrix, row by row, scaled to thresholds spread over one quantization step (below 255)
+    private static final int[] THRESHOLDS = bayerThresholds();
+
+    private EinkQuantizer() {
+    }
+
+    /**
+     * Dithers an image to the 16-level gray palette.
+     *
+     * @return A new 4-bit image with the gray palette
+     */
+    static BufferedImage quantize(BufferedImage img) {
+        int width = img.getWidth();
+        int height = img.getHeight();
+        BufferedImage dst = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_BINARY, PALETTE);
+        WritableRaster raster = dst.getRaster();
+        byte[] out = ((DataBufferByte) raster.getDataBuffer()).getData();
+        int stride = ((MultiPixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+        // One spare value so pixels are always packed by pairs (padding after the last pixel of odd widths)
+        int[] luma = new int[width + 1];
+        for (int y = 0; y < height; y++) {
+            RasterKernels.luminanceRow(img, y, 1, luma);
+            luma[width] = 0;
+            int thresholds = (y & 7) * 8;
+            int to = y * stride;
+            for (int x = 0; x < width; x += 2) {
+                // level = floor(luma * 15 / 255 + threshold / 255): the levels are 17 apart on the 0-255 scale
+                int first = (luma[x] * (LEVELS - 1) + THRESHOLDS[thresholds + (x & 7)]) / 255;
+                int second = (luma[x + 1] * (LEVELS - 1) + THRESHOLDS[thresholds + ((x + 1) & 7)]) / 255;
+                // The leftmost pixel takes the high bits of the byte
+                out[to + x / 2] = (byte) ((first << 4) | second);
+            }
+        }
+        return dst;
+    }
+
+    private static IndexColorModel grayPalette() {
+        byte[] grays = new byte[LEVELS];
+        for (int i = 0; i < LEVELS; i++) {
+            grays[i] = (byte) (i * 255 / (LEVELS - 1));
+        }
+        return new IndexColorModel(4, LEVELS, grays, grays, grays);
+    }
+
+    private static int[] bayerThresholds() {
+        // Recursive construction: each 2x2 quadrant of the matrix of size n interleaves the one of size n/2
+        int[] matrix = {0};
+        for (int size = 1; size < 8; size *= 2) {
+            int[] next = new int[size * size * 4];
+            for (int y = 0; y < size; y++) {
+                for (int x = 0; x < size; x++) {
+                    int value = matrix[y * size + x] * 4;
+                    next[y * size * 2 + x] = value;
+                    next[y * size * 2 + x + size] = value + 2;
+                    next[(y + size) * size * 2 + x] = value + 3;
+                    next[(y + size) * size * 2 + x + size] = value + 1;
+                }
+            }
+            matrix = next;
+        }
+        int[] thresholds = new int[64];
+        for (int i = 0; i < 64; i++) {
+            thresholds[i] = (matrix[i] * 255 + 32) / 64;
+        }
+        return thresholds;
+    }
+}
@@ -0,0 +1,41 @@
+import java.awt.image.BufferedImage;
+
+/**
+ * Detects pages that only hold shades of gray although they are decoded with color
+ * channels, so they can be encoded with a single channel. A grid of pixels is sampled over
+ * the page: it is grayscale when the channels of almost every sample are equal.
+ */
+class GrayscaleDetector {
+
+    // Pixels sampled along each row and rows sampled down the page
+    private static final int MAX_SAMPLES = 512;
+    // Largest difference between the channels of a gray pixel (scan and compression noise)
+    private static final int CHROMA_TOLERANCE = 16;
+    // At most one sample in this many may be colored (chroma fringes of JPEG edges), so a small colored area is kept
+    private static final int COLORED_DIVISOR = 5000;
+
+    private GrayscaleDetector() {
+    }
+
+    /**
+     * Tells whether a decoded page with color channels only holds shades of gray.
+     * Images with transparency or a single channel already are never reported.
+     */
+    static boolean isGrayscale(BufferedImage img) {
+        if (img.getColorModel().getNumColorComponents() < 3 || img.getColorModel().hasAlpha()) {
+            return false;
+        }
+        int stepX = Math.max(1, img.getWidth() / MAX_SAMPLES);
+        int stepY = Math.max(1, img.getHeight() / MAX_SAMPLES);
+        long samples = (long) ((img.getWidth() + stepX - 1) / stepX) * ((img.getHeight() + stepY - 1) / stepY);
+        long maxColored = samples / COLORED_DIVISOR;
+        long colored = 0;
+        for (int y = stepY / 2; y < img.getHeight(); y += stepY) {
+            colored += RasterKernels.countColored(img, y, stepX, CHROMA_TOLERANCE);
+            if (colored > maxColored) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,129 @@
+import java.awt.image.BufferedImage;
+
+/**
+ * Finds the gutter of a double page, the blank band between its two pages, so scans that
+ * are not centered are split there instead of in the middle. Only a window around the
+ * middle is looked at, on a downsampled luminance profile: the mean and deviation of
+ * each column over a few hundred rows.
+ */
+class GutterFinder {
+
+    // The gutter is searched this fraction of the width on each side of the middle
+    private static final int SEARCH_DIVISOR = 10;
+    // Rows sampled down each column
+    private static final int SAMPLED_ROWS = 256;
+    // Largest standard deviation of the luminance down a column still considered blank (scan noise)
+    private static final int MAX_DEVIATION = 12;
+
+    private GutterFinder() {
+    }
+
+    /**
+     * Finds where a decoded double page should be split.
+     *
+     * @return The width of the left page: the middle of the gutter closest to the middle
+     *         of the image, or half the width if there is no gutter in range
+     */
+    static int findCut(BufferedImage img) {
+        int width = img.getWidth();
+        int height = img.getHeight();
+        int from = Math.max(1, width / 2 - width / SEARCH_DIVISOR);
+        int to = Math.min(width - 1, width / 2 + width / SEARCH_DIVISOR);
+        if (to <= from) {
+            return width / 2;
+        }
+        BufferedImage window = img.getSubimage(from, 0, to - from, height);
+        int step = Math.max(1, height / SAMPLED_ROWS);
+        long[] sums = new long[to - from];
+        long[] squares = new long[to - from];
+        int[] row = new int[to - from];
+        int samples = 0;
+        for (int y = step / 2; y < height; y += step) {
+            int count = RasterKernels.luminanceRow(window, y, 1, row);
+            RasterKernels.addToProfile(row, 0, count, sums, squares);
+            samples++;
+        }
+        int[] run = findBlankRun(sums, squares, samples, width / 2 - from);
+        return run != null ? from + (run[0] + run[1]) / 2 : width / 2;
+    }
+
+    /**
+     * Finds where a double page JPEG should be split, from the DC coefficients of its luma
+     * blocks: a profile 8 times smaller than the pixels, obtained without decoding them.
+     *
+     * @param x Left edge of the kept area, on a block boundary
+     * @return The width of the left page, a multiple of the MCU width if possible, or -1
+     *         if the gutter found does not contain any MCU boundary
+     */
+    static int findCut(LosslessJpeg jpeg, int x, int y, int width, int height) {
+        int[][] blocks = jpeg.getLumaBlocks();
+        if (blocks == null) {
+            return width / 2;
+        }
+        int blockWidth = jpeg.getLumaBlockWidth();
+        int blockHeight = jpeg.getLumaBlockHeight();
+        int firstColumn = x / blockWidth;
+        int columns = Math.min(blocks[0].length - firstColumn, (width + blockWidth - 1) / blockWidth);
+        int firstRow = y / blockHeight;
+        int lastRow = Math.min(blocks.length, (y + height + blockHeight - 1) / blockHeight);
+        int from = Math.max(1, columns / 2 - columns / SEARCH_DIVISOR);
+        int to = Math.min(columns - 1, columns / 2 + columns / SEARCH_DIVISOR);
+        if (to <= from) {
+            return width / 2;
+        }
+
+        int step = Math.max(1, (lastRow - firstRow) / SAMPLED_ROWS);
+        long[] sums = new long[to - from];
+        long[] squares = new long[to - from];
+        int samples = 0;
+        for (int row = firstRow; row < lastRow; row += step) {
+            RasterKernels.addToProfile(blocks[row], firstColumn + from, to - from, sums, squares);
+            samples++;
+        }
+        int[] run = findBlankRun(sums, squares, samples, (width / 2) / blockWidth - from);
+        if (run == null) {
+            return width / 2;
+        }
+        // Blank blocks span the pixels from the left edge of the first one to the right edge of the last one
+        int start = (from + run[0]) * blockWidth;
+        int end = (from + run[1]) * blockWidth;
+        // The MCU boundary closest to the middle of the gutter, if there is one inside it
+        int mcuWidth = jpeg.getMcuWidth();
+        int cut = ((start + end) / 2 + mcuWidth / 2) / mcuWidth * mcuWidth;
+        return cut > start && cut < end ? cut : -1;
+    }
+
+    /**
+     * Finds the run of blank columns whose middle is closest to the given column.
+     *
+     * @return The first and last + 1 columns of the run, or null if no column is blank
+     */
+    private static int[] findBlankRun(long[] sums, long[] squares, int samples, int center) {
+        if (samples == 0) {
+            return null;
+        }
+        int[] best = null;
+        int bestDistance = Integer.MAX_VALUE;
+        int runStart = -1;
+        for (int x = 0; x <= sums.length; x++) {
+            boolean blank = x < sums.length && isBlank(sums[x], squares[x], samples);
+            if (blank && runStart < 0) {
+                runStart = x;
+            } else if (!blank && runStart >= 0) {
+                int distance = Math.abs((runStart + x) / 2 - center);
+                if (distance < bestDistance) {
+                    best = new int[]{runStart, x};
+                    bestDistance = distance;
+                }
+                runStart = -1;
+            }
+        }
+        return best;
+    }
+
+    private static boolean isBlank(long sum, long squares, int samples) {
+        // Variance = mean of the squares - square of the mean, compared without dividing
+        long variance = squares * samples - sum * sum;
+        return variance <= (long) MAX_DEVIATION * MAX_DEVIATION * samples * samples;
+    }
+}
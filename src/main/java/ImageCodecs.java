@@ -0,0 +1,357 @@
+import java.awt.Dimension;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import org.w3c.dom.NodeList;
+
+/**
+ * Image readers and writers kept per thread and per format, so pages do not go through
+ * the ImageIO plugin registry (and a new codec instance) every time, plus the encoder
+ * settings of the processing options.
+ */
+class ImageCodecs {
+
+    private static final String JPEG_METADATA_FORMAT = "javax_imageio_jpeg_image_1.0";
+
+    private static final ThreadLocal<Map<String, ImageReader>> READERS = ThreadLocal.withInitial(HashMap::new);
+    private static final ThreadLocal<Map<String, ImageWriter>> WRITERS = ThreadLocal.withInitial(HashMap::new);
+
+    private ImageCodecs() {
+    }
+
+    /**
+     * Decodes an area of an image held in memory. Readers only keep the pixels of the area,
+     * so the rest of the image never takes memory.
+     *
+     * @param region The area to decode, or null for the whole image
+     * @param pool Pool providing the decoded image, or null to allocate a new one
+     * @return The image, or null if it cannot be decoded
+     */
+    static BufferedImage read(byte[] bytes, Rectangle region, RasterPool pool) throws IOException {
+        String format = detectFormat(bytes, bytes.length);
+        ImageReader reader = getReader(format);
+        if (reader == null) {
+            BufferedImage img = ImageIO.read(new ByteArrayInputStream(bytes));
+            if (img == null || region == null) {
+                return img;
+            }
+            Rectangle bounds = region.intersection(new Rectangle(img.getWidth(), img.getHeight()));
+            return img.getSubimage(bounds.x, bounds.y, bounds.width, bounds.height);
+        }
+        try (ImageInputStream input = new MemoryCacheImageInputStream(new ByteArrayInputStream(bytes))) {
+            reader.setInput(input, true, true);
+            ImageReadParam param = reader.getDefaultReadParam();
+            Rectangle bounds = new Rectangle(reader.getWidth(0), reader.getHeight(0));
+            if (region != null) {
+                param.setSourceRegion(region);
+                bounds = region.intersection(bounds);
+            }
+            // JPEG and PNG decoders write every pixel of the destination, so a reused image needs no clearing
+            if (pool != null && (format.equals("jpeg") || format.equals("png")) && !bounds.isEmpty()) {
+                Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+                int imageType = types.hasNext() ? types.next().getBufferedImageType() : BufferedImage.TYPE_CUSTOM;
+                if (RasterPool.isPoolable(imageType)) {
+                    param.setDestination(pool.acquire(bounds.width, bounds.height, imageType));
+                }
+            }
+            return reader.read(0, param);
+        } finally {
+            reader.setInput(null);
+        }
+    }
+
+    /**
+     * Decodes an area of an image held in memory into an existing image, from one of its rows.
+     *
+     * @param destination An image of the type the reader produces, see {@link #createImage}
+     * @return false if the image cannot be decoded this way
+     */
+    static boolean readInto(byte[] bytes, Rectangle region, BufferedImage destination, int destinationY)
+            throws IOException {
+        ImageReader reader = getReader(detectFormat(bytes, bytes.length));
+        if (reader == null) {
+            return false;
+        }
+        try (ImageInputStream input = new MemoryCacheImageInputStream(new ByteArrayInputStream(bytes))) {
+            reader.setInput(input, true, true);
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceRegion(region);
+            param.setDestination(destination);
+            param.setDestinationOffset(new Point(0, destinationY));
+            reader.read(0, param);
+            return true;
+        } finally {
+            reader.setInput(null);
+        }
+    }
+
+    /**
+     * Creates an image of the type the reader of an image produces, to decode its areas into.
+     *
+     * @param pool Pool providing the image, or null to allocate a new one
+     * @return The image, or null if no reader can handle the data
+     */
+    static BufferedImage createImage(byte[] bytes, int width, int height, RasterPool pool) throws IOException {
+        ImageReader reader = getReader(detectFormat(bytes, bytes.length));
+        if (reader == null) {
+            return null;
+        }
+        try (ImageInputStream input = new MemoryCacheImageInputStream(new ByteArrayInputStream(bytes))) {
+            reader.setInput(input, true, true);
+            Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+            if (!types.hasNext()) {
+                return null;
+            }
+            ImageTypeSpecifier type = types.next();
+            if (pool != null && RasterPool.isPoolable(type.getBufferedImageType())) {
+                return pool.acquire(width, height, type.getBufferedImageType());
+            }
+            return type.createBufferedImage(width, height);
+        } finally {
+            reader.setInput(null);
+        }
+    }
+
+    /**
+     * Tells whether the header of an image is the one of a progressive JPEG, whose decoder
+     * keeps the coefficients of the whole image whatever the area decoded.
+     */
+    static boolean isProgressiveJpeg(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readUnsignedShort() != 0xFFD8) {
+            return false;
+        }
+        while (true) {
+            if (data.readUnsignedByte() != 0xFF) {
+                return false;
+            }
+            int marker = data.readUnsignedByte();
+            while (marker == 0xFF) {
+                marker = data.readUnsignedByte();
+            }
+            if (marker == 0xD9 || marker == 0xDA) {
+                return false; // No frame before the image data
+            }
+            if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                continue;
+            }
+            // SOF2, SOF6, SOF10 and SOF14 are the progressive frames
+            if (marker == 0xC2 || marker == 0xC6 || marker == 0xCA || marker == 0xCE) {
+                return true;
+            }
+            if (marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC) {
+                return false;
+            }
+            int length = data.readUnsignedShort();
+            if (length < 2) {
+                return false;
+            }
+            data.skipBytes(length - 2);
+        }
+    }
+
+    /**
+     * Decodes a reduced version of an image, keeping one pixel out of n in each direction
+     * so its longest side is at most {@code maxSide} pixels.
+     *
+     * @return The reduced image, or null if it cannot be decoded
+     */
+    static BufferedImage readSubsampled(byte[] bytes, int maxSide) throws IOException {
+        ImageReader reader = getReader(detectFormat(bytes, bytes.length));
+        if (reader == null) {
+            return ImageIO.read(new ByteArrayInputStream(bytes));
+        }
+        try (ImageInputStream input = new MemoryCacheImageInputStream(new ByteArrayInputStream(bytes))) {
+            reader.setInput(input, true, true);
+            ImageReadParam param = reader.getDefaultReadParam();
+            int factor = Math.max(1, (Math.max(reader.getWidth(0), reader.getHeight(0)) + maxSide - 1) / maxSide);
+            param.setSourceSubsampling(factor, factor, 0, 0);
+            return reader.read(0, param);
+        } finally {
+            reader.setInput(null);
+        }
+    }
+
+    /**
+     * Decodes the luminance of a reduced version of an image: the DC coefficients of the
+     * luma blocks for JPEGs (one value per 8x8 block, without any IDCT), or a decode
+     * subsampled to at most {@code maxSide} pixels for other formats.
+     *
+     * @return The luminance values (0-255) row by row, or null if the image cannot be decoded
+     */
+    static int[][] readLuminance(byte[] bytes, int maxSide) throws IOException {
+        LosslessJpeg jpeg = LosslessJpeg.parse(bytes);
+        int[][] blocks = jpeg != null ? jpeg.getLumaBlocks() : null;
+        if (blocks != null && blocks.length > 0) {
+            return blocks;
+        }
+        BufferedImage img = readSubsampled(bytes, maxSide);
+        if (img == null) {
+            return null;
+        }
+        int[][] rows = new int[img.getHeight()][img.getWidth()];
+        for (int y = 0; y < rows.length; y++) {
+            RasterKernels.luminanceRow(img, y, 1, rows[y]);
+        }
+        return rows;
+    }
+
+    /**
+     * Reads the width and height of an image from its header, without decoding the pixels.
+     *
+     * @return The image size, or null if no reader can handle the data
+     */
+    static Dimension readSize(InputStream in) throws IOException {
+        try (ImageInputStream input = new MemoryCacheImageInputStream(in)) {
+            byte[] header = new byte[12];
+            input.mark();
+            int length = input.read(header);
+            input.reset();
+
+            ImageReader reader = getReader(detectFormat(header, Math.max(0, length)));
+            boolean pooled = reader != null;
+            if (!pooled) {
+                Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+                if (!readers.hasNext()) {
+                    return null;
+                }
+                reader = readers.next();
+            }
+            try {
+                reader.setInput(input, true, true);
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                if (pooled) {
+                    reader.setInput(null);
+                } else {
+                    reader.dispose();
+                }
+            }
+        }
+    }
+
+    /**
+     * Encodes an image with the encoder settings of the options.
+     *
+     * @return false if there is no encoder for this format and image type
+     */
+    static boolean write(BufferedImage img, String format, OutputStream out, ProcessingOptions options) throws IOException {
+        ImageWriter writer = getWriter(format);
+        if (writer == null || !writer.getOriginatingProvider().canEncodeImage(img)) {
+            return false;
+        }
+
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        IIOMetadata metadata = null;
+        if (isJpeg(format)) {
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(options.jpegQuality / 100f);
+            param.setProgressiveMode(options.jpegProgressive
+                    ? ImageWriteParam.MODE_DEFAULT : ImageWriteParam.MODE_DISABLED);
+            if (options.jpegSubsampling != ProcessingOptions.JPEG_SUBSAMPLING_420) {
+                metadata = jpegMetadata(writer, img, param, options.jpegSubsampling);
+            }
+        } else if (format.equalsIgnoreCase("png") && options.pngCompressionLevel >= 0 && param.canWriteCompressed()) {
+            // The PNG encoder maps quality 1.0 to no compression and 0.0 to the best one
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(1f - options.pngCompressionLevel / 9f);
+        }
+
+        try (ImageOutputStream output = new MemoryCacheImageOutputStream(out)) {
+            writer.setOutput(output);
+            writer.write(null, new IIOImage(img, null, metadata), param);
+        } finally {
+            writer.setOutput(null);
+        }
+        return true;
+    }
+
+    /**
+     * Default JPEG metadata with the luminance sampling factors set for the chroma subsampling.
+     */
+    private static IIOMetadata jpegMetadata(ImageWriter writer, BufferedImage img, ImageWriteParam param,
+                                            int subsampling) throws IOException {
+        IIOMetadata metadata = writer.getDefaultImageMetadata(ImageTypeSpecifier.createFromRenderedImage(img), param);
+        if (metadata == null) {
+            return null;
+        }
+        IIOMetadataNode root = (IIOMetadataNode) metadata.getAsTree(JPEG_METADATA_FORMAT);
+        NodeList components = root.getElementsByTagName("componentSpec");
+        if (components.getLength() != 3) {
+            return metadata; // Grayscale, nothing to subsample
+        }
+        IIOMetadataNode luminance = (IIOMetadataNode) components.item(0);
+        luminance.setAttribute("HsamplingFactor", subsampling == ProcessingOptions.JPEG_SUBSAMPLING_444 ? "1" : "2");
+        luminance.setAttribute("VsamplingFactor", "1");
+        metadata.setFromTree(JPEG_METADATA_FORMAT, root);
+        return metadata;
+    }
+
+    private static ImageReader getReader(String format) {
+        if (format == null) {
+            return null;
+        }
+        return READERS.get().computeIfAbsent(format, name -> {
+            Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName(name);
+            return readers.hasNext() ? readers.next() : null;
+        });
+    }
+
+    private static ImageWriter getWriter(String format) {
+        return WRITERS.get().computeIfAbsent(format.toLowerCase(Locale.ROOT), name -> {
+            Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(name);
+            return writers.hasNext() ? writers.next() : null;
+        });
+    }
+
+    /**
+     * Recognizes the formats handled by the application from their signature.
+     *
+     * @return The format name, or null if unknown
+     */
+    private static String detectFormat(byte[] header, int length) {
+        if (length >= 3 && (header[0] & 0xFF) == 0xFF && (header[1] & 0xFF) == 0xD8 && (header[2] & 0xFF) == 0xFF) {
+            return "jpeg";
+        }
+        if (length >= 8 && (header[0] & 0xFF) == 0x89 && header[1] == 'P' && header[2] == 'N' && header[3] == 'G') {
+            return "png";
+        }
+        if (length >= 4 && header[0] == 'G' && header[1] == 'I' && header[2] == 'F' && header[3] == '8') {
+            return "gif";
+        }
+        if (length >= 2 && header[0] == 'B' && header[1] == 'M') {
+            return "bmp";
+        }
+        if (length >= 12 && header[0] == 'R' && header[1] == 'I' && header[2] == 'F' && header[3] == 'F'
+                && header[8] == 'W' && header[9] == 'E' && header[10] == 'B' && header[11] == 'P') {
+            return "webp";
+        }
+        return null;
+    }
+
+    private static boolean isJpeg(String format) {
+        return format.equalsIgnoreCase("jpg") || format.equalsIgnoreCase("jpeg");
+    }
+}
@@ -0,0 +1,1144 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Lossless JPEG transforms working on the DCT coefficients, like jpegtran: cropping
+ * (and so halving) at MCU boundaries and 90° clockwise rotation. The pixels are never
+ * decoded, so there is no generation loss and little CPU work.
+ * Long images can also be cut into bands on their coefficients, read from top to bottom
+ * ({@link Bands}). Only sequential Huffman-coded 8-bit JPEGs are supported; callers fall
+ * back to pixel processing when {@link #parse} or {@link #transform} returns null.
+ */
+class LosslessJpeg {
+
+    // Natural (row-major) index of each coefficient in zig-zag order
+    private static final int[] ZIGZAG = {
+         0,  1,  8, 16,  9,  2,  3, 10,
+        17, 24, 32, 25, 18, 11,  4,  5,
+        12, 19, 26, 33, 40, 48, 41, 34,
+        27, 20, 13,  6,  7, 14, 21, 28,
+        35, 42, 49, 56, 57, 50, 43, 36,
+        29, 22, 15, 23, 30, 37, 44, 51,
+        58, 59, 52, 45, 38, 31, 39, 46,
+        53, 60, 61, 54, 47, 55, 62, 63
+    };
+
+    private static class Component {
+        int id;
+        int h;
+        int v;
+        int quantTable;
+        int dcTable;
+        int acTable;
+        // Coefficients of every block of the MCU-padded grid, 64 per block in natural order
+        short[] coefs;
+        int blocksPerLine;
+        int blocksPerColumn;
+    }
+
+    private final int width;
+    private final int height;
+    private final int sofMarker;
+    private final Component[] components;
+    private final int hMax;
+    private final int vMax;
+    // APPn and COM segments (marker included), copied to the output in their original order
+    private final List<byte[]> segments;
+    // Quantization tables in zig-zag order (null if undefined), and their precision (0 = 8-bit, 1 = 16-bit)
+    private final int[][] quantTables;
+    private final int[] quantPrecisions;
+
+    private LosslessJpeg(int width, int height, int sofMarker, Component[] components, List<byte[]> segments,
+                         int[][] quantTables, int[] quantPrecisions) {
+        this.width = width;
+        this.height = height;
+        this.sofMarker = sofMarker;
+        this.components = components;
+        this.segments = segments;
+        this.quantTables = quantTables;
+        this.quantPrecisions = quantPrecisions;
+        int hm = 1;
+        int vm = 1;
+        for (Component c : components) {
+            hm = Math.max(hm, c.h);
+            vm = Math.max(vm, c.v);
+        }
+        this.hMax = hm;
+        this.vMax = vm;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    /**
+     * Mean luminance (0-255) of each block of the first component, from its DC coefficient,
+     * for the blocks inside the image.
+     *
+     * @return The blocks row by row, or null if the first component is not a luma or gray one
+     */
+    int[][] getLumaBlocks() {
+        if (components.length != 1 && (components.length != 3 || !isYCbCr())) {
+            return null;
+        }
+        Component luma = components[0];
+        int dcStep = quantTables[luma.quantTable][0];
+        int rows = Math.min(luma.blocksPerColumn, ceilDiv(height, getLumaBlockHeight()));
+        int columns = Math.min(luma.blocksPerLine, ceilDiv(width, getLumaBlockWidth()));
+        int[][] blocks = new int[rows][columns];
+        for (int by = 0; by < rows; by++) {
+            for (int bx = 0; bx < columns; bx++) {
+                // The DC coefficient is 8 times the mean of the level-shifted samples
+                int mean = luma.coefs[(by * luma.blocksPerLine + bx) * 64] * dcStep / 8 + 128;
+                blocks[by][bx] = Math.max(0, Math.min(255, mean));
+            }
+        }
+        return blocks;
+    }
+
+    /**
+     * Tells whether a 3-component image is YCbCr rather than RGB, the way decoders do: from the
+     * transform flag of an Adobe segment if there is one, otherwise from the component IDs
+     * ('R', 'G', 'B' for RGB).
+     */
+    private boolean isYCbCr() {
+        for (byte[] segment : segments) {
+            // Marker, length, "Adobe", version, two flag words, then the transform (0 = none, RGB)
+            if ((segment[1] & 0xFF) == 0xEE && segment.length >= 16
+                    && new String(segment, 4, 5, StandardCharsets.US_ASCII).equals("Adobe")) {
+                return segment[15] != 0;
+            }
+        }
+        return !(components[0].id == 'R' && components[1].id == 'G' && components[2].id == 'B');
+    }
+
+    /**
+     * Width in pixels covered by a block of the first component.
+     */
+    int getLumaBlockWidth() {
+        return 8 * hMax / components[0].h;
+    }
+
+    /**
+     * Height in pixels covered by a block of the first component.
+     */
+    int getLumaBlockHeight() {
+        return 8 * vMax / components[0].v;
+    }
+
+    /**
+     * Width of an MCU, the horizontal unit of lossless cuts.
+     */
+    int getMcuWidth() {
+        return 8 * hMax;
+    }
+
+    /**
+     * Height of an MCU, the vertical unit of lossless cuts.
+     */
+    int getMcuHeight() {
+        return 8 * vMax;
+    }
+
+    /**
+     * Reads the coefficients of a JPEG file.
+     *
+     * @return The parsed image, or null if the file is not a supported JPEG
+     */
+    static LosslessJpeg parse(byte[] data) {
+        try {
+            return new Parser(data).parse();
+        } catch (RuntimeException e) {
+            // Truncated or corrupt data: let the pixel path deal with it
+            return null;
+        }
+    }
+
+    /**
+     * Prepares a JPEG file to be cut into bands from top to bottom, see {@link Bands}.
+     *
+     * @return The bands reader, or null if the file is not a sequential JPEG with a single
+     *         scan holding all its components
+     */
+    static Bands bands(byte[] data) {
+        try {
+            return new Parser(data).bands();
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Crops a region and optionally rotates it 90° clockwise, without decoding the pixels.
+     * The left and top edges of the region must fall on MCU boundaries, and so must its
+     * bottom edge when rotating (it becomes the left edge).
+     *
+     * @param stripMetadata Whether to drop EXIF/XMP (with their thumbnails), comments and other
+     *                      application segments, keeping only JFIF, ICC profile and Adobe ones
+     * @return The new JPEG file, or null if the region does not allow a lossless transform
+     */
+    byte[] transform(int x, int y, int w, int h, boolean rotate, boolean stripMetadata) {
+        int mcuWidth = 8 * hMax;
+        int mcuHeight = 8 * vMax;
+        if (w <= 0 || h <= 0 || x < 0 || y < 0 || x + w > width || y + h > height
+                || x % mcuWidth != 0 || y % mcuHeight != 0 || (rotate && h % mcuHeight != 0)) {
+            return null;
+        }
+
+        int outWidth = rotate ? h : w;
+        int outHeight = rotate ? w : h;
+        int outHMax = rotate ? vMax : hMax;
+        int outVMax = rotate ? hMax : vMax;
+        int mcusX = ceilDiv(outWidth, 8 * outHMax);
+        int mcusY = ceilDiv(outHeight, 8 * outVMax);
+
+        Component[] out = new Component[components.length];
+        for (int n = 0; n < components.length; n++) {
+            Component src = components[n];
+            Component dst = new Component();
+            dst.id = src.id;
+            dst.quantTable = src.quantTable;
+            dst.h = rotate ? src.v : src.h;
+            dst.v = rotate ? src.h : src.v;
+            dst.dcTable = n == 0 ? 0 : 1;
+            dst.acTable = n == 0 ? 0 : 1;
+            dst.blocksPerLine = mcusX * dst.h;
+            dst.blocksPerColumn = mcusY * dst.v;
+            dst.coefs = new short[dst.blocksPerLine * dst.blocksPerColumn * 64];
+
+            int offsetX = x * src.h / mcuWidth;
+            int offsetY = y * src.v / mcuHeight;
+            int regionRows = h * src.v / mcuHeight;
+            for (int by = 0; by < dst.blocksPerColumn; by++) {
+                for (int bx = 0; bx < dst.blocksPerLine; bx++) {
+                    int sx = rotate ? offsetX + by : offsetX + bx;
+                    int sy = rotate ? offsetY + regionRows - 1 - bx : offsetY + by;
+                    if (sx >= src.blocksPerLine || sy < 0 || sy >= src.blocksPerColumn) {
+                        continue; // Padding outside the image, left blank
+                    }
+                    int from = (sy * src.blocksPerLine + sx) * 64;
+                    int to = (by * dst.blocksPerLine + bx) * 64;
+                    if (rotate) {
+                        // Transpose, then mirror horizontally: odd horizontal frequencies change sign
+                        for (int row = 0; row < 8; row++) {
+                            for (int col = 0; col < 8; col++) {
+                                short value = src.coefs[from + col * 8 + row];
+                                dst.coefs[to + row * 8 + col] = (col & 1) == 0 ? value : (short) -value;
+                            }
+                        }
+                    } else {
+                        System.arraycopy(src.coefs, from, dst.coefs, to, 64);
+                    }
+                }
+            }
+            out[n] = dst;
+        }
+        // The quantization steps follow their coefficients through the transposition
+        int[][] tables = new int[quantTables.length][];
+        for (int t = 0; t < tables.length; t++) {
+            tables[t] = rotate && quantTables[t] != null ? transposeZigzag(quantTables[t]) : quantTables[t];
+        }
+        List<byte[]> kept = stripMetadata ? colorSegments(segments) : segments;
+        return new Encoder(out, outWidth, outHeight, outHMax, outVMax)
+                .encode(sofMarker, kept, tables, quantPrecisions);
+    }
+
+    /**
+     * Keeps the segments that affect how pixels are read: APP0 (JFIF), APP2 (ICC profile)
+     * and APP14 (Adobe color transform).
+     */
+    private static List<byte[]> colorSegments(List<byte[]> segments) {
+        List<byte[]> kept = new ArrayList<>();
+        for (byte[] segment : segments) {
+            int marker = segment[1] & 0xFF;
+            if (marker == 0xE0 || marker == 0xEE || (marker == 0xE2 && isIccProfile(segment))) {
+                kept.add(segment);
+            }
+        }
+        return kept;
+    }
+
+    private static boolean isIccProfile(byte[] segment) {
+        byte[] id = "ICC_PROFILE".getBytes(StandardCharsets.US_ASCII);
+        if (segment.length < 4 + id.length) {
+            return false;
+        }
+        return Arrays.equals(Arrays.copyOfRange(segment, 4, 4 + id.length), id);
+    }
+
+    private static int[] transposeZigzag(int[] table) {
+        int[] natural = new int[64];
+        for (int k = 0; k < 64; k++) {
+            natural[ZIGZAG[k]] = table[k];
+        }
+        int[] transposed = new int[64];
+        for (int k = 0; k < 64; k++) {
+            int row = ZIGZAG[k] / 8;
+            int col = ZIGZAG[k] % 8;
+            transposed[k] = natural[col * 8 + row];
+        }
+        return transposed;
+    }
+
+    private static int ceilDiv(int a, int b) {
+        return (a + b - 1) / b;
+    }
+
+    /**
+     * Cuts a sequential JPEG into horizontal bands, each one a JPEG file of its own, while
+     * reading its entropy-coded data only once from top to bottom. Only the coefficients of
+     * the rows around the current band are kept, so a long strip is decoded band after band
+     * with the work and memory of one band. Bands include one extra row of MCUs above and
+     * below when there is one, so chroma upsampling at their edges matches the whole image.
+     */
+    static final class Bands {
+        private final Parser parser;
+        private final List<byte[]> segments;
+        // Decoded rows of MCUs (or of blocks for a single-component scan), one coefficient array per component
+        private final ArrayDeque<short[][]> rows = new ArrayDeque<>();
+        // Index of the first kept row; the rows after the kept ones are not decoded yet
+        private int firstRow = 0;
+
+        private Bands(Parser parser) {
+            this.parser = parser;
+            this.segments = colorSegments(parser.segments);
+        }
+
+        int getWidth() {
+            return parser.width;
+        }
+
+        int getHeight() {
+            return parser.height;
+        }
+
+        /**
+         * Top row, in the image, of the band returned for a band starting at the given row.
+         */
+        int bandTop(int y) {
+            return Math.max(0, y / parser.rowHeight - 1) * parser.rowHeight;
+        }
+
+        /**
+         * Encodes the band holding the given rows of the image, starting at {@link #bandTop}.
+         * Bands must be requested from top to bottom, each one starting below the previous one.
+         *
+         * @throws IllegalStateException If the data is corrupt, or the band starts above the previous one
+         */
+        byte[] band(int y, int height) {
+            int from = Math.max(0, y / parser.rowHeight - 1);
+            int to = Math.min(parser.unitRows, (y + height - 1) / parser.rowHeight + 2);
+            if (from < firstRow) {
+                throw new IllegalStateException("Band above the previous one");
+            }
+            drop(from);
+            for (int row = firstRow + rows.size(); row < to; row++) {
+                rows.addLast(parser.readRow(row));
+                // Rows above the band were only decoded to get to it
+                drop(from);
+            }
+
+            Component[] out = new Component[parser.components.length];
+            for (int n = 0; n < out.length; n++) {
+                Component src = parser.components[n];
+                Component dst = new Component();
+                dst.id = src.id;
+                dst.h = src.h;
+                dst.v = src.v;
+                dst.quantTable = src.quantTable;
+                dst.dcTable = n == 0 ? 0 : 1;
+                dst.acTable = n == 0 ? 0 : 1;
+                dst.blocksPerLine = src.blocksPerLine;
+                dst.blocksPerColumn = (to - from) * parser.blockRowsPerUnit(src);
+                dst.coefs = new short[dst.blocksPerLine * dst.blocksPerColumn * 64];
+                int offset = 0;
+                int row = from;
+                for (short[][] coefs : rows) {
+                    if (row++ >= to) {
+                        break;
+                    }
+                    System.arraycopy(coefs[n], 0, dst.coefs, offset, coefs[n].length);
+                    offset += coefs[n].length;
+                }
+                out[n] = dst;
+            }
+            int top = from * parser.rowHeight;
+            int bottom = Math.min(parser.height, to * parser.rowHeight);
+            return new Encoder(out, parser.width, bottom - top, parser.hMax, parser.vMax)
+                    .encode(parser.sofMarker, segments, parser.quantTables, parser.quantPrecisions);
+        }
+
+        private void drop(int from) {
+            while (firstRow < from && !rows.isEmpty()) {
+                rows.removeFirst();
+                firstRow++;
+            }
+        }
+    }
+
+    /**
+     * Canonical Huffman table, with an 8-bit lookup for short codes.
+     */
+    private static class HuffmanTable {
+        final int[] lookup = new int[256];
+        final int[] maxCode = new int[18];
+        final int[] valueOffset = new int[17];
+        final int[] values;
+
+        HuffmanTable(int[] counts, int[] values) {
+            this.values = values;
+            int code = 0;
+            int k = 0;
+            for (int length = 1; length <= 16; length++) {
+                valueOffset[length] = k - code;
+                for (int i = 0; i < counts[length - 1]; i++) {
+                    if (length <= 8) {
+                        // Every 8-bit prefix starting with this code decodes to it
+                        int shift = 8 - length;
+                        for (int fill = 0; fill < (1 << shift); fill++) {
+                            lookup[(code << shift) | fill] = (length << 8) | values[k];
+                        }
+                    }
+                    code++;
+                    k++;
+                }
+                maxCode[length] = counts[length - 1] > 0 ? code - 1 : -1;
+                code <<= 1;
+            }
+            maxCode[17] = Integer.MAX_VALUE;
+        }
+    }
+
+    private static class Parser {
+        private final byte[] data;
+        private int pos = 0;
+        private final HuffmanTable[] dcTables = new HuffmanTable[4];
+        private final HuffmanTable[] acTables = new HuffmanTable[4];
+        private final List<byte[]> segments = new ArrayList<>();
+        private final int[][] quantTables = new int[4][];
+        private final int[] quantPrecisions = new int[4];
+        private Component[] components;
+        private int width;
+        private int height;
+        private int sofMarker;
+        private int hMax;
+        private int vMax;
+        private int mcusX;
+        private int mcusY;
+        private int restartInterval = 0;
+        private boolean scanned = false;
+        // Stop at the first scan, its rows being decoded one by one on demand (see Bands)
+        private boolean streaming = false;
+
+        // Current scan: its components in order, their DC predictions, and its units (MCUs, or
+        // blocks for a single component), decoded in rows of unitsPerLine
+        private Component[] scanComponents;
+        private int[] predictions;
+        private int unitsPerLine;
+        private int unitRows;
+        private int nextUnit;
+        // Pixel rows covered by a row of units
+        private int rowHeight;
+
+        // Entropy-coded data reader
+        private long bitBuffer;
+        private int bitCount;
+
+        Parser(byte[] data) {
+            this.data = data;
+        }
+
+        LosslessJpeg parse() {
+            if (!readSegments() || !scanned || !hasQuantTables()) {
+                return null;
+            }
+            return new LosslessJpeg(width, height, sofMarker, components, segments, quantTables, quantPrecisions);
+        }
+
+        Bands bands() {
+            streaming = true;
+            if (!readSegments() || scanComponents == null || scanComponents.length != components.length
+                    || !hasQuantTables()) {
+                return null;
+            }
+            return new Bands(this);
+        }
+
+        /**
+         * Reads the segments of the file up to its end, decoding its scans, or when streaming
+         * up to the header of the first scan, whose rows are then read by {@link #readRow}.
+         *
+         * @return false if the file is not a supported JPEG
+         */
+        private boolean readSegments() {
+            if (u8(0) != 0xFF || u8(1) != 0xD8) {
+                return false;
+            }
+            pos = 2;
+            while (true) {
+                if (u8(pos) != 0xFF) {
+                    return false;
+                }
+                while (u8(pos) == 0xFF) {
+                    pos++;
+                }
+                int marker = u8(pos++);
+                if (marker == 0xD9) {
+                    break;
+                }
+                if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+                    continue; // Markers without a length
+                }
+                int length = u16(pos);
+                int start = pos + 2;
+                int end = pos + length;
+                if (length < 2 || end > data.length) {
+                    return false;
+                }
+                if (marker == 0xC0 || marker == 0xC1) {
+                    if (components != null || !readFrame(marker, start)) {
+                        return false;
+                    }
+                } else if (marker >= 0xC2 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC) {
+                    return false; // Progressive, lossless or arithmetic coding
+                } else if (marker == 0xC4) {
+                    readHuffmanTables(start, end);
+                } else if (marker == 0xDD) {
+                    restartInterval = u16(start);
+                } else if (marker == 0xDA) {
+                    if (components == null) {
+                        return false;
+                    }
+                    pos = end;
+                    startScan(start);
+                    if (streaming) {
+                        return true;
+                    }
+                    for (int row = 0; row < unitRows; row++) {
+                        decodeRow(row, 0);
+                    }
+                    endScan();
+                    continue;
+                } else if (marker == 0xDB) {
+                    readQuantTables(start, end);
+                } else if ((marker >= 0xE0 && marker <= 0xEF) || marker == 0xFE) {
+                    byte[] segment = new byte[length + 2];
+                    System.arraycopy(data, pos - 2, segment, 0, segment.length);
+                    segments.add(segment);
+                }
+                pos = end;
+            }
+            return true;
+        }
+
+        private boolean hasQuantTables() {
+            for (Component c : components) {
+                if (c.quantTable > 3 || quantTables[c.quantTable] == null) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void readQuantTables(int p, int end) {
+            while (p < end) {
+                int info = u8(p);
+                int precision = info >> 4;
+                int[] table = new int[64];
+                for (int k = 0; k < 64; k++) {
+                    table[k] = precision == 0 ? u8(p + 1 + k) : u16(p + 1 + k * 2);
+                }
+                quantTables[info & 3] = table;
+                quantPrecisions[info & 3] = precision;
+                p += 1 + (precision == 0 ? 64 : 128);
+            }
+        }
+
+        private boolean readFrame(int marker, int p) {
+            if (u8(p) != 8) {
+                return false; // 12-bit samples
+            }
+            sofMarker = marker;
+            height = u16(p + 1);
+            width = u16(p + 3);
+            int count = u8(p + 5);
+            if (width == 0 || height == 0 || count == 0 || count > 4) {
+                return false;
+            }
+            components = new Component[count];
+            hMax = 1;
+            vMax = 1;
+            for (int n = 0; n < count; n++) {
+                Component c = new Component();
+                c.id = u8(p + 6 + n * 3);
+                c.h = u8(p + 7 + n * 3) >> 4;
+                c.v = u8(p + 7 + n * 3) & 15;
+                c.quantTable = u8(p + 8 + n * 3);
+                if (c.h < 1 || c.h > 4 || c.v < 1 || c.v > 4) {
+                    return false;
+                }
+                hMax = Math.max(hMax, c.h);
+                vMax = Math.max(vMax, c.v);
+                components[n] = c;
+            }
+            mcusX = ceilDiv(width, 8 * hMax);
+            mcusY = ceilDiv(height, 8 * vMax);
+            for (Component c : components) {
+                c.blocksPerLine = mcusX * c.h;
+                c.blocksPerColumn = mcusY * c.v;
+                if (!streaming) {
+                    c.coefs = new short[c.blocksPerLine * c.blocksPerColumn * 64];
+                }
+            }
+            return true;
+        }
+
+        private void readHuffmanTables(int p, int end) {
+            while (p < end) {
+                int info = u8(p);
+                int[] counts = new int[16];
+                int total = 0;
+                for (int i = 0; i < 16; i++) {
+                    counts[i] = u8(p + 1 + i);
+                    total += counts[i];
+                }
+                int[] values = new int[total];
+                for (int i = 0; i < total; i++) {
+                    values[i] = u8(p + 17 + i);
+                }
+                HuffmanTable table = new HuffmanTable(counts, values);
+                if ((info >> 4) == 0) {
+                    dcTables[info & 3] = table;
+                } else {
+                    acTables[info & 3] = table;
+                }
+                p += 17 + total;
+            }
+        }
+
+        private void startScan(int p) {
+            int count = u8(p);
+            scanComponents = new Component[count];
+            for (int n = 0; n < count; n++) {
+                int id = u8(p + 1 + n * 2);
+                int tables = u8(p + 2 + n * 2);
+                for (Component c : components) {
+                    if (c.id == id) {
+                        scanComponents[n] = c;
+                    }
+                }
+                if (scanComponents[n] == null) {
+                    throw new IllegalStateException("Unknown scan component");
+                }
+                scanComponents[n].dcTable = tables >> 4;
+                scanComponents[n].acTable = tables & 15;
+            }
+            predictions = new int[count];
+            nextUnit = 0;
+            bitBuffer = 0;
+            bitCount = 0;
+
+            if (count == 1) {
+                // Non-interleaved: one block per unit, covering only the component's own size
+                Component c = scanComponents[0];
+                unitsPerLine = ceilDiv(ceilDiv(width * c.h, hMax), 8);
+                unitRows = ceilDiv(ceilDiv(height * c.v, vMax), 8);
+                rowHeight = 8 * vMax / c.v;
+            } else {
+                unitsPerLine = mcusX;
+                unitRows = mcusY;
+                rowHeight = 8 * vMax;
+            }
+        }
+
+        /**
+         * Rows of blocks of a component in a row of units of the current scan.
+         */
+        int blockRowsPerUnit(Component c) {
+            return scanComponents.length == 1 ? 1 : c.v;
+        }
+
+        /**
+         * Decodes the next row of units of the current scan into new coefficient arrays.
+         *
+         * @return The coefficients of the row, one array per component of the frame
+         */
+        short[][] readRow(int unitY) {
+            short[][] row = new short[components.length][];
+            for (int n = 0; n < components.length; n++) {
+                Component c = components[n];
+                row[n] = new short[c.blocksPerLine * blockRowsPerUnit(c) * 64];
+                c.coefs = row[n];
+            }
+            decodeRow(unitY, unitY);
+            return row;
+        }
+
+        /**
+         * Decodes a row of units of the current scan, the units being read in order.
+         *
+         * @param firstRow Row of units stored at the start of the coefficient arrays
+         */
+        private void decodeRow(int unitY, int firstRow) {
+            int count = scanComponents.length;
+            for (int unitX = 0; unitX < unitsPerLine; unitX++, nextUnit++) {
+                if (restartInterval > 0 && nextUnit > 0 && nextUnit % restartInterval == 0) {
+                    restart(predictions);
+                }
+                if (count == 1) {
+                    Component c = scanComponents[0];
+                    predictions[0] = decodeBlock(c, ((unitY - firstRow) * c.blocksPerLine + unitX) * 64, predictions[0]);
+                } else {
+                    for (int n = 0; n < count; n++) {
+                        Component c = scanComponents[n];
+                        for (int v = 0; v < c.v; v++) {
+                            for (int h = 0; h < c.h; h++) {
+                                int bx = unitX * c.h + h;
+                                int by = (unitY - firstRow) * c.v + v;
+                                predictions[n] = decodeBlock(c, (by * c.blocksPerLine + bx) * 64, predictions[n]);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        private void endScan() {
+            // Skip to the marker following the entropy-coded data
+            while (pos < data.length - 1
+                    && !(u8(pos) == 0xFF && u8(pos + 1) != 0 && (u8(pos + 1) < 0xD0 || u8(pos + 1) > 0xD7))) {
+                pos++;
+            }
+            if (pos >= data.length - 1) {
+                throw new IllegalStateException("Truncated scan: no marker after the entropy-coded data");
+            }
+            scanned = true;
+        }
+
+        private void restart(int[] predictions) {
+            bitBuffer = 0;
+            bitCount = 0;
+            while (pos < data.length - 1 && !(u8(pos) == 0xFF && u8(pos + 1) >= 0xD0 && u8(pos + 1) <= 0xD7)) {
+                pos++;
+            }
+            if (pos >= data.length - 1) {
+                throw new IllegalStateException("Truncated scan: missing restart marker");
+            }
+            pos += 2;
+            for (int i = 0; i < predictions.length; i++) {
+                predictions[i] = 0;
+            }
+        }
+
+        private int decodeBlock(Component c, int offset, int prediction) {
+            HuffmanTable dc = dcTables[c.dcTable];
+            HuffmanTable ac = acTables[c.acTable];
+            if (dc == null || ac == null) {
+                throw new IllegalStateException("Missing Huffman table");
+            }
+            int dcValue = prediction + receiveExtend(decodeSymbol(dc));
+            c.coefs[offset] = (short) dcValue;
+            int k = 1;
+            while (k < 64) {
+                int rs = decodeSymbol(ac);
+                int run = rs >> 4;
+                int size = rs & 15;
+                if (size == 0) {
+                    if (run != 15) {
+                        break; // End of block
+                    }
+                    k += 16;
+                    continue;
+                }
+                k += run;
+                if (k > 63) {
+                    throw new IllegalStateException("Corrupt block");
+                }
+                c.coefs[offset + ZIGZAG[k]] = (short) receiveExtend(size);
+                k++;
+            }
+            return dcValue;
+        }
+
+        private int decodeSymbol(HuffmanTable table) {
+            fill();
+            int entry = table.lookup[peek(8)];
+            if (entry != 0) {
+                bitCount -= entry >> 8;
+                return entry & 0xFF;
+            }
+            int code = peek(8);
+            bitCount -= 8;
+            for (int length = 9; length <= 16; length++) {
+                code = (code << 1) | bits(1);
+                if (code <= table.maxCode[length]) {
+                    return table.values[table.valueOffset[length] + code];
+                }
+            }
+            throw new IllegalStateException("Invalid Huffman code");
+        }
+
+        private int receiveExtend(int size) {
+            if (size == 0) {
+                return 0;
+            }
+            int value = bits(size);
+            return value < (1 << (size - 1)) ? value - (1 << size) + 1 : value;
+        }
+
+        private int bits(int count) {
+            fill();
+            int value = peek(count);
+            bitCount -= count;
+            return value;
+        }
+
+        private int peek(int count) {
+            return (int) (bitBuffer >>> (bitCount - count)) & ((1 << count) - 1);
+        }
+
+        private void fill() {
+            while (bitCount <= 32) {
+                int b = 0;
+                if (pos < data.length) {
+                    b = u8(pos);
+                    if (b == 0xFF) {
+                        if (u8(pos + 1) == 0) {
+                            pos += 2;
+                        } else {
+                            b = 0; // A marker: feed zeros without consuming it
+                        }
+                    } else {
+                        pos++;
+                    }
+                }
+                bitBuffer = (bitBuffer << 8) | b;
+                bitCount += 8;
+            }
+        }
+
+        private int u8(int p) {
+            return p < data.length ? data[p] & 0xFF : 0;
+        }
+
+        private int u16(int p) {
+            return (u8(p) << 8) | u8(p + 1);
+        }
+    }
+
+    /**
+     * Writes coefficients as a baseline JPEG with optimized Huffman tables
+     * (the transform changes the DC differences, so the source tables may not fit).
+     */
+    private static class Encoder {
+        private final Component[] components;
+        private final int width;
+        private final int height;
+        private final int hMax;
+        private final int vMax;
+
+        private final int[][] dcFrequencies = new int[2][257];
+        private final int[][] acFrequencies = new int[2][257];
+        private final int[][] dcCodes = new int[2][256];
+        private final int[][] dcLengths = new int[2][256];
+        private final int[][] acCodes = new int[2][256];
+        private final int[][] acLengths = new int[2][256];
+        private boolean counting;
+
+        private final ByteArrayOutputStream out;
+        private long bitBuffer = 0;
+        private int bitCount = 0;
+
+        Encoder(Component[] components, int width, int height, int hMax, int vMax) {
+            this.components = components;
+            this.width = width;
+            this.height = height;
+            this.hMax = hMax;
+            this.vMax = vMax;
+            int size = 1024;
+            for (Component c : components) {
+                size += c.coefs.length / 4;
+            }
+            this.out = new ByteArrayOutputStream(size);
+        }
+
+        byte[] encode(int sofMarker, List<byte[]> segments, int[][] quantTables, int[] quantPrecisions) {
+            counting = true;
+            writeScan();
+            int tables = components.length > 1 ? 2 : 1;
+            List<int[][]> specs = new ArrayList<>();
+            for (int t = 0; t < tables; t++) {
+                specs.add(buildTable(dcFrequencies[t], dcCodes[t], dcLengths[t]));
+                specs.add(buildTable(acFrequencies[t], acCodes[t], acLengths[t]));
+            }
+
+            writeShort(0xFFD8);
+            for (byte[] segment : segments) {
+                out.write(segment, 0, segment.length);
+            }
+
+            for (int t = 0; t < quantTables.length; t++) {
+                if (quantTables[t] == null) {
+                    continue;
+                }
+                int precision = quantPrecisions[t];
+                writeShort(0xFFDB);
+                writeShort(2 + 1 + (precision == 0 ? 64 : 128));
+                out.write((precision << 4) | t);
+                for (int value : quantTables[t]) {
+                    if (precision != 0) {
+                        out.write(value >> 8);
+                    }
+                    out.write(value & 0xFF);
+                }
+            }
+
+            writeShort(0xFF00 | sofMarker);
+            writeShort(8 + components.length * 3);
+            out.write(8);
+            writeShort(height);
+            writeShort(width);
+            out.write(components.length);
+            for (Component c : components) {
+                out.write(c.id);
+                out.write((c.h << 4) | c.v);
+                out.write(c.quantTable);
+            }
+
+            for (int t = 0; t < tables; t++) {
+                for (int kind = 0; kind < 2; kind++) {
+                    int[][] spec = specs.get(t * 2 + kind);
+                    writeShort(0xFFC4);
+                    writeShort(2 + 17 + spec[1].length);
+                    out.write((kind << 4) | t);
+                    for (int i = 1; i <= 16; i++) {
+                        out.write(spec[0][i]);
+                    }
+                    for (int value : spec[1]) {
+                        out.write(value);
+                    }
+                }
+            }
+
+            writeShort(0xFFDA);
+            writeShort(6 + components.length * 2);
+            out.write(components.length);
+            for (Component c : components) {
+                out.write(c.id);
+                out.write((c.dcTable << 4) | c.acTable);
+            }
+            out.write(0);
+            out.write(63);
+            out.write(0);
+
+            counting = false;
+            writeScan();
+            // Pad the last byte with 1 bits
+            if (bitCount > 0) {
+                writeBits((1 << (8 - bitCount)) - 1, 8 - bitCount);
+            }
+            writeShort(0xFFD9);
+            return out.toByteArray();
+        }
+
+        private void writeScan() {
+            int[] predictions = new int[components.length];
+            if (components.length == 1) {
+                Component c = components[0];
+                int blocksX = ceilDiv(ceilDiv(width * c.h, hMax), 8);
+                int blocksY = ceilDiv(ceilDiv(height * c.v, vMax), 8);
+                for (int by = 0; by < blocksY; by++) {
+                    for (int bx = 0; bx < blocksX; bx++) {
+                        predictions[0] = writeBlock(c, (by * c.blocksPerLine + bx) * 64, predictions[0]);
+                    }
+                }
+                return;
+            }
+            int mcusX = ceilDiv(width, 8 * hMax);
+            int mcusY = ceilDiv(height, 8 * vMax);
+            for (int mcuY = 0; mcuY < mcusY; mcuY++) {
+                for (int mcuX = 0; mcuX < mcusX; mcuX++) {
+                    for (int n = 0; n < components.length; n++) {
+                        Component c = components[n];
+                        for (int v = 0; v < c.v; v++) {
+                            for (int h = 0; h < c.h; h++) {
+                                int bx = mcuX * c.h + h;
+                                int by = mcuY * c.v + v;
+                                predictions[n] = writeBlock(c, (by * c.blocksPerLine + bx) * 64, predictions[n]);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        private int writeBlock(Component c, int offset, int prediction) {
+            short[] coefs = c.coefs;
+            int dcValue = coefs[offset];
+            int diff = dcValue - prediction;
+            int size = bitLength(diff);
+            writeSymbol(dcFrequencies[c.dcTable], dcCodes[c.dcTable], dcLengths[c.dcTable], size);
+            writeValue(diff, size);
+
+            int run = 0;
+            for (int k = 1; k < 64; k++) {
+                int value = coefs[offset + ZIGZAG[k]];
+                if (value == 0) {
+                    run++;
+                    continue;
+                }
+                while (run > 15) {
+                    writeSymbol(acFrequencies[c.acTable], acCodes[c.acTable], acLengths[c.acTable], 0xF0);
+                    run -= 16;
+                }
+                size = bitLength(value);
+                writeSymbol(acFrequencies[c.acTable], acCodes[c.acTable], acLengths[c.acTable], (run << 4) | size);
+                writeValue(value, size);
+                run = 0;
+            }
+            if (run > 0) {
+                writeSymbol(acFrequencies[c.acTable], acCodes[c.acTable], acLengths[c.acTable], 0x00);
+            }
+            return dcValue;
+        }
+
+        private void writeSymbol(int[] frequencies, int[] codes, int[] lengths, int symbol) {
+            if (counting) {
+                frequencies[symbol]++;
+            } else {
+                writeBits(codes[symbol], lengths[symbol]);
+            }
+        }
+
+        private void writeValue(int value, int size) {
+            if (!counting && size > 0) {
+                writeBits((value < 0 ? value - 1 : value) & ((1 << size) - 1), size);
+            }
+        }
+
+        private void writeBits(int bits, int count) {
+            bitBuffer = (bitBuffer << count) | bits;
+            bitCount += count;
+            while (bitCount >= 8) {
+                int b = (int) (bitBuffer >>> (bitCount - 8)) & 0xFF;
+                out.write(b);
+                if (b == 0xFF) {
+                    out.write(0); // Byte stuffing
+                }
+                bitCount -= 8;
+            }
+        }
+
+        private void writeShort(int value) {
+            out.write(value >> 8);
+            out.write(value & 0xFF);
+        }
+
+        private static int bitLength(int value) {
+            return 32 - Integer.numberOfLeadingZeros(Math.abs(value));
+        }
+
+        /**
+         * Builds an optimal table limited to 16-bit codes (JPEG Annex K.2 and K.3).
+         *
+         * @return The code counts per length (index 1-16) and the symbols in code order
+         */
+        private static int[][] buildTable(int[] frequencies, int[] codes, int[] lengths) {
+            int[] freq = frequencies.clone();
+            freq[256] = 1; // Reserved symbol, so no real code is all 1 bits
+            int[] codeSize = new int[257];
+            int[] others = new int[257];
+            Arrays.fill(others, -1);
+
+            while (true) {
+                int c1 = -1;
+                long least = Long.MAX_VALUE;
+                for (int i = 0; i <= 256; i++) {
+                    if (freq[i] != 0 && freq[i] <= least) {
+                        least = freq[i];
+                        c1 = i;
+                    }
+                }
+                int c2 = -1;
+                least = Long.MAX_VALUE;
+                for (int i = 0; i <= 256; i++) {
+                    if (freq[i] != 0 && freq[i] <= least && i != c1) {
+                        least = freq[i];
+                        c2 = i;
+                    }
+                }
+                if (c2 < 0) {
+                    break;
+                }
+                freq[c1] += freq[c2];
+                freq[c2] = 0;
+                codeSize[c1]++;
+                while (others[c1] >= 0) {
+                    c1 = others[c1];
+                    codeSize[c1]++;
+                }
+                others[c1] = c2;
+                codeSize[c2]++;
+                while (others[c2] >= 0) {
+                    c2 = others[c2];
+                    codeSize[c2]++;
+                }
+            }
+
+            int[] bits = new int[33];
+            for (int i = 0; i <= 256; i++) {
+                if (codeSize[i] > 0) {
+                    bits[codeSize[i]]++;
+                }
+            }
+            for (int i = 32; i > 16; i--) {
+                while (bits[i] > 0) {
+                    int j = i - 2;
+                    while (bits[j] == 0) {
+                        j--;
+                    }
+                    bits[i] -= 2;
+                    bits[i - 1]++;
+                    bits[j + 1] += 2;
+                    bits[j]--;
+                }
+            }
+            int last = 16;
+            while (bits[last] == 0) {
+                last--;
+            }
+            bits[last]--; // Drop the reserved symbol
+
+            List<Integer> values = new ArrayList<>();
+            for (int length = 1; length <= 32; length++) {
+                for (int symbol = 0; symbol < 256; symbol++) {
+                    if (codeSize[symbol] == length) {
+                        values.add(symbol);
+                    }
+                }
+            }
+
+            int[] valueArray = new int[values.size()];
+            int code = 0;
+            int k = 0;
+            for (int length = 1; length <= 16; length++) {
+                for (int i = 0; i < bits[length]; i++) {
+                    int symbol = values.get(k);
+                    valueArray[k++] = symbol;
+                    codes[symbol] = code++;
+                    lengths[symbol] = length;
+                }
+                code <<= 1;
+            }
+            return new int[][]{Arrays.copyOf(bits, 17), valueArray};
+        }
+    }
+}
@@ -7,12 +7,28 @@ import com.formdev.flatlaf.FlatLightLaf;
 import javax.imageio.ImageIO;
 import javax.swing.*;
 import java.awt.*;
-import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
 import java.io.*;
 import java.nio.file.*;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -23,16 +39,63 @@ public class MangaPagesSplitter {
 
     private static final String[] IMAGE_EXTENSIONS = {".jpg", ".jpeg", ".png", ".gif", ".bmp", ".webp"};
     private static final String[] ARCHIVE_EXTENSIONS = {".rar", ".zip", ".cbr", ".cbz"};
+    private static final int BUFFER_SIZE = 64 * 1024;
     
     private static MangaPagesSplitterUI ui = null;
 
+    // Log lines of the volume handled by the current thread, flushed as one block when the volume is done
+    private static final ThreadLocal<List<String>> LOG_BUFFER = new ThreadLocal<>();
+    private static final Object LOG_LOCK = new Object();
+
+    // Per-image progress only makes sense when a single volume is processed at a time
+    private static volatile boolean reportImageProgress = true;
+
+    // Decoded pixel data of the pages being transformed, shared by all volumes of the run
+    private static volatile MemoryBudget memoryBudget = null;
+    // Images of encoded pages, reused by the next decodes and rotations of the same size
+    private static volatile RasterPool rasterPool = null;
+
     private static class ArchiveExtractionResult {
         public final List<Path> archivePaths;
         public final List<Path> extractedFolders;
+        // ZIP/CBZ archives left packed, their pages are streamed straight into the output archive
+        public final List<Path> streamedArchives;
+        // Archives left packed for now, extracted one window slot at a time while volumes are processed
+        public final List<Path> deferredArchives;
         
-        public ArchiveExtractionResult(List<Path> archivePaths, List<Path> extractedFolders) {
+        public ArchiveExtractionResult(List<Path> archivePaths, List<Path> extractedFolders, List<Path> streamedArchives,
+                                       List<Path> deferredArchives) {
             this.archivePaths = archivePaths;
             this.extractedFolders = extractedFolders;
+            this.streamedArchives = streamedArchives;
+            this.deferredArchives = deferredArchives;
+        }
+    }
+
+    /**
+     * Disk space taken by the folders extracted from archives, to report the peak of a run.
+     */
+    private static class TempDiskUsage {
+        private final Map<Path, Long> sizes = new HashMap<>();
+        private long current = 0;
+        private long peak = 0;
+
+        synchronized void add(Path folder) {
+            long size = folderSize(folder);
+            Long previous = sizes.put(folder, size);
+            current += size - (previous == null ? 0 : previous);
+            peak = Math.max(peak, current);
+        }
+
+        synchronized void remove(Path folder) {
+            Long size = sizes.remove(folder);
+            if (size != null) {
+                current -= size;
+            }
+        }
+
+        synchronized long getPeak() {
+            return peak;
         }
     }
 
@@ -59,18 +122,35 @@ public class MangaPagesSplitter {
             int skipImagesFromStart, int skipImagesFromEnd, boolean rotateWideImages, 
             String outputFormat, int cropLeft, int cropRight, int cropTop, int cropBottom,
             boolean flattenDirectories, boolean useCustomTitle, String customTitle,
-            MangaPagesSplitterUI uiInstance) throws IOException {
+            ProcessingOptions options, MangaPagesSplitterUI uiInstance) throws IOException {
         
         ui = uiInstance;
+        // Pages are decoded from and encoded to memory buffers, no need for ImageIO disk caches
+        ImageIO.setUseCache(false);
         
         try {
+            // ZIP/CBZ to ZIP/CBZ can be streamed entry by entry, without extracting to disk
+            boolean streamArchives = options.streamArchives && !flattenDirectories
+                    && (outputFormat.equals("cbz") || outputFormat.equals("zip"));
+
+            // With a rolling window, archives are extracted just before their volume is processed
+            boolean rollingWindow = options.archiveWindow > 0;
+            TempDiskUsage tempUsage = new TempDiskUsage();
+
             logMessage("Starting extraction of archives...");
             // Step 1: Extract all archives and collect paths
-            ArchiveExtractionResult extractionResult = extractAllArchives(rootFolder);
+            ArchiveExtractionResult extractionResult = extractAllArchives(rootFolder, streamArchives, rollingWindow, tempUsage);
             List<Path> originalArchives = extractionResult.archivePaths;
             List<Path> extractedFolders = extractionResult.extractedFolders;
             
-            logMessage("Extracted " + originalArchives.size() + " archives.");
+            logMessage("Extracted " + extractedFolders.size() + " archives.");
+            if (!extractionResult.streamedArchives.isEmpty()) {
+                logMessage(extractionResult.streamedArchives.size() + " ZIP/CBZ archives will be streamed without extraction.");
+            }
+            if (!extractionResult.deferredArchives.isEmpty()) {
+                logMessage(extractionResult.deferredArchives.size() + " archives will be extracted in a rolling window of "
+                           + options.archiveWindow + ".");
+            }
             
             // Step 2: Collect folders to process
             Path root = Paths.get(rootFolder);
@@ -91,93 +171,148 @@ public class MangaPagesSplitter {
                         .sorted()
                         .collect(Collectors.toList());
                 }
+                // Each deferred archive is one work item, its volumes are found once it is extracted
+                folders.addAll(extractionResult.deferredArchives);
             } else {
                 try (Stream<Path> stream = Files.list(root)) {
-                    folders = stream.filter(Files::isDirectory).sorted().collect(Collectors.toList());
+                    folders = stream.filter(Files::isDirectory).collect(Collectors.toList());
                 }
+                // Streamed and deferred archives are volumes too, ordered as if they had been extracted
+                folders.addAll(extractionResult.streamedArchives);
+                folders.addAll(extractionResult.deferredArchives);
+                folders.sort(Comparator.comparing(MangaPagesSplitter::getVolumeName));
             }
 
             final long totalFolders = folders.size();
-            List<Path> newlyCreatedOutputFiles = new ArrayList<>();
-            final int[] processedFolders = {0};
-
-            logMessage("Processing " + totalFolders + " folders...");
-
-            // Keep track of folders to delete after processing
-            List<Path> foldersToDelete = new ArrayList<>();
-
-            for (Path folder : folders) {
-                // Check if the processing should be cancelled
-                if (Thread.currentThread().isInterrupted() || (ui != null && ui.isCancelled())) {
-                    logMessage("Processing cancelled by user.");
-                    break;
-                }
-
-                try {
-                    // In flatten mode use "ParentName - LeafName" as the output name
-                    String outputName;
-                    if (flattenDirectories) {
-                        Path relativePath = root.relativize(folder);
-                        StringBuilder nameBuilder = new StringBuilder();
-                        for (int i = 0; i < relativePath.getNameCount(); i++) {
-                            if (i > 0) nameBuilder.append(" - ");
-                            nameBuilder.append(relativePath.getName(i).toString());
+            // Output paths and cleanup list are filled by the volume workers
+            List<Path> newlyCreatedOutputFiles = Collections.synchronizedList(new ArrayList<>());
+            final AtomicInteger processedFolders = new AtomicInteger(0);
+
+            // Keep track of folders to delete after processing (a set, so a shared
+            // top-level ancestor is only registered once)
+            Set<Path> foldersToDelete = Collections.synchronizedSet(new LinkedHashSet<>());
+
+            int volumeThreads = Math.max(1, Math.min(options.volumeThreads, folders.size()));
+            if (volumeThreads > 1 && outputFormat.equals("folder") && hasNestedVolumes(folders)) {
+                // Folder output moves/deletes the input folder, which would race with a nested volume
+                logMessage("Nested volumes with folder output: processing volumes one at a time.");
+                volumeThreads = 1;
+            }
+            logMessage("Processing " + totalFolders + " folders" +
+                       (volumeThreads > 1 ? " with " + volumeThreads + " parallel workers" : "") + "...");
+            reportImageProgress = volumeThreads == 1;
+            // The images kept for reuse are part of the configured memory, a fifth of it left to the pool
+            long memoryBytes = options.memoryBudgetBytes();
+            rasterPool = new RasterPool(memoryBytes / 5);
+            memoryBudget = new MemoryBudget(memoryBytes - memoryBytes / 5);
+            final boolean groupLogs = volumeThreads > 1;
+            final List<Path> volumes = folders;
+
+            // Pages of all volumes share one pool; without it each volume transforms its pages in order
+            ExecutorService pagePool = options.pageThreads > 1
+                    ? Executors.newFixedThreadPool(options.pageThreads, namedThreadFactory("page-worker"))
+                    : null;
+            ExecutorService volumePool = Executors.newFixedThreadPool(volumeThreads, namedThreadFactory("volume-worker"));
+            // Deferred archives are extracted in volume order, at most archiveWindow of them on disk at once
+            Set<Path> deferredArchives = new HashSet<>(extractionResult.deferredArchives);
+            Semaphore window = new Semaphore(Math.max(1, options.archiveWindow));
+            ExecutorService extractorPool = deferredArchives.isEmpty() ? null
+                    : Executors.newSingleThreadExecutor(namedThreadFactory("archive-extractor"));
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (Path folder : volumes) {
+                    Future<Path> extraction = deferredArchives.contains(folder)
+                            ? extractorPool.submit(() -> extractIntoWindow(folder, window, extractedFolders, tempUsage))
+                            : null;
+                    futures.add(volumePool.submit(() -> {
+                        // Check if the processing should be cancelled
+                        if (Thread.currentThread().isInterrupted() || (ui != null && ui.isCancelled())) {
+                            if (extraction != null && !extraction.cancel(true)) {
+                                // Already extracted: this volume will not be processed, so free its folder and slot now
+                                try {
+                                    Path extractDir = extraction.get();
+                                    if (extractDir != null) {
+                                        discardExtraction(extractDir, window, tempUsage);
+                                    }
+                                } catch (ExecutionException e) {
+                                    // Extraction failed, no slot held
+                                }
+                            }
+                            return null;
                         }
-                        outputName = nameBuilder.toString();
-                    } else {
-                        outputName = folder.getFileName().toString();
-                    }
-
-                    // Apply custom title if enabled: replace outputName with "<title> <number>"
-                    if (useCustomTitle && customTitle != null && !customTitle.isEmpty()) {
-                        String number = extractLastNumber(folder.getFileName().toString());
-                        outputName = customTitle + (number.isEmpty() ? "" : " " + number);
-                    }
-
-                    logMessage("Processing folder: " + outputName);
-
-                    // Update progress
-                    if (totalFolders > 0) {
-                        updateProgress("Processing folder " + (processedFolders[0] + 1) + "/" + totalFolders,
-                                      (int)((processedFolders[0] * 100) / totalFolders));
-                    }
-
-                    // Pass crop parameters to processFolderAndCreateOutput
-                    Path newOutputPath = processFolderAndCreateOutput(folder, root, outputName, splitMode,
-                                                          isJapaneseManga, deleteOriginals,
-                                                          skipImagesFromStart, skipImagesFromEnd,
-                                                          rotateWideImages, outputFormat,
-                                                          cropLeft, cropRight, cropTop, cropBottom,
-                                                          extractedFolders);
-                    if (newOutputPath != null) {
-                        newlyCreatedOutputFiles.add(newOutputPath);
-                        logMessage("Created: " + newOutputPath.getFileName());
-
-                        // Add folder to cleanup list if output is not "folder"
-                        // Only clean up extracted archive folders (intermediate) or if user wants originals deleted
-                        if (!outputFormat.equals("folder")) {
-                            if (flattenDirectories) {
-                                // Clean up the top-level ancestor (direct child of root), not the leaf itself
-                                Path topLevelAncestor = root.resolve(root.relativize(folder).getName(0));
-                                if ((extractedFolders.contains(topLevelAncestor) || deleteOriginals)
-                                        && !foldersToDelete.contains(topLevelAncestor)) {
-                                    foldersToDelete.add(topLevelAncestor);
+                        // Buffer the log lines of this volume so they stay together in the log
+                        if (groupLogs) {
+                            LOG_BUFFER.set(new ArrayList<>());
+                        }
+                        try {
+                            if (extraction == null) {
+                                processVolume(folder, root, splitMode, isJapaneseManga, deleteOriginals,
+                                              skipImagesFromStart, skipImagesFromEnd, rotateWideImages,
+                                              outputFormat, cropLeft, cropRight, cropTop, cropBottom,
+                                              flattenDirectories, useCustomTitle, customTitle,
+                                              extractedFolders, newlyCreatedOutputFiles, foldersToDelete, options, pagePool);
+                                return null;
+                            }
+                            Path extractDir = extraction.get();
+                            if (extractDir == null) {
+                                return null; // Extraction failed, already logged
+                            }
+                            try {
+                                for (Path volume : listExtractedVolumes(extractDir, flattenDirectories)) {
+                                    processVolume(volume, root, splitMode, isJapaneseManga, deleteOriginals,
+                                                  skipImagesFromStart, skipImagesFromEnd, rotateWideImages,
+                                                  outputFormat, cropLeft, cropRight, cropTop, cropBottom,
+                                                  flattenDirectories, useCustomTitle, customTitle,
+                                                  extractedFolders, newlyCreatedOutputFiles, foldersToDelete, options, pagePool);
                                 }
-                            } else {
-                                if (extractedFolders.contains(folder) || deleteOriginals) {
-                                    foldersToDelete.add(folder);
+                            } finally {
+                                // Free the window slot right away instead of waiting for the end of the run
+                                if (foldersToDelete.remove(extractDir)) {
+                                    try {
+                                        deleteDirectory(extractDir);
+                                    } catch (IOException e) {
+                                        logMessage("Error cleaning up intermediate folder: " + extractDir + " - " + e.getMessage());
+                                    }
                                 }
+                                tempUsage.remove(extractDir);
+                                window.release();
                             }
+                            return null;
+                        } finally {
+                            flushLogBuffer();
+                            int done = processedFolders.incrementAndGet();
+                            updateProgress("Processed folder " + done + "/" + totalFolders,
+                                           (int)((done * 90L) / totalFolders));
                         }
-                    }
-
-                    processedFolders[0]++;
+                    }));
+                }
 
-                } catch (IOException e) {
-                    logMessage("Error processing folder: " + folder + " - " + e.getMessage());
+                for (int i = 0; i < futures.size(); i++) {
+                    try {
+                        futures.get(i).get();
+                    } catch (ExecutionException e) {
+                        logMessage("Error processing folder: " + volumes.get(i) + " - " + e.getCause());
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                volumePool.shutdownNow();
+                awaitQuietly(volumePool);
+                if (extractorPool != null) {
+                    extractorPool.shutdownNow();
+                    awaitQuietly(extractorPool);
+                }
+                if (pagePool != null) {
+                    pagePool.shutdownNow();
+                    awaitQuietly(pagePool);
                 }
             }
-            
+
+            if (Thread.currentThread().isInterrupted() || (ui != null && ui.isCancelled())) {
+                logMessage("Processing cancelled by user.");
+            }
+
             updateProgress("Cleaning up...", 90);
                     
             // Delete original archives if needed, but exclude newly created archive files
@@ -203,10 +338,15 @@ public class MangaPagesSplitter {
             for (Path folder : foldersToDelete) {
                 try {
                     deleteDirectory(folder);
+                    tempUsage.remove(folder);
                 } catch (IOException e) {
                     logMessage("Error cleaning up intermediate folder: " + folder + " - " + e.getMessage());
                 }
             }            
+            logMessage("Peak temporary disk usage (extracted archives): " + formatSize(tempUsage.getPeak()));
+            logMessage("Peak decoded pixel memory: " + formatSize(memoryBudget.getPeak())
+                       + " of a " + formatSize(memoryBudget.getCapacity()) + " budget");
+            logMessage("Reused page images: " + rasterPool.report());
 
             updateProgress("Complete", 100);
             String outputType = outputFormat.equals("folder") ? "folders" : outputFormat.toUpperCase() + " files";
@@ -219,7 +359,159 @@ public class MangaPagesSplitter {
         }
     }
 
+    /**
+     * Processes one volume (folder) and registers its output and the folders to clean up.
+     * Called from the volume worker threads, so the shared collections must be thread-safe.
+     */
+    private static void processVolume(Path folder, Path root, int splitMode, boolean isJapaneseManga,
+                                      boolean deleteOriginals, int skipImagesFromStart, int skipImagesFromEnd,
+                                      boolean rotateWideImages, String outputFormat,
+                                      int cropLeft, int cropRight, int cropTop, int cropBottom,
+                                      boolean flattenDirectories, boolean useCustomTitle, String customTitle,
+                                      List<Path> extractedFolders, List<Path> newlyCreatedOutputFiles,
+                                      Set<Path> foldersToDelete, ProcessingOptions options,
+                                      ExecutorService pagePool) {
+        try {
+            // In flatten mode use "ParentName - LeafName" as the output name
+            String outputName;
+            String volumeName = getVolumeName(folder);
+            if (flattenDirectories) {
+                Path relativePath = root.relativize(folder);
+                StringBuilder nameBuilder = new StringBuilder();
+                for (int i = 0; i < relativePath.getNameCount(); i++) {
+                    if (i > 0) nameBuilder.append(" - ");
+                    nameBuilder.append(relativePath.getName(i).toString());
+                }
+                outputName = nameBuilder.toString();
+            } else {
+                outputName = volumeName;
+            }
+
+            // Apply custom title if enabled: replace outputName with "<title> <number>"
+            if (useCustomTitle && customTitle != null && !customTitle.isEmpty()) {
+                String number = extractLastNumber(volumeName);
+                outputName = customTitle + (number.isEmpty() ? "" : " " + number);
+            }
+
+            logMessage("Processing folder: " + outputName);
+
+            // A regular file here is a streamed archive, it has no folder to clean up
+            if (Files.isRegularFile(folder)) {
+                Path newOutputPath = processArchiveAndCreateOutput(folder, root, outputName, splitMode,
+                                                      isJapaneseManga, deleteOriginals,
+                                                      skipImagesFromStart, skipImagesFromEnd,
+                                                      rotateWideImages, outputFormat,
+                                                      cropLeft, cropRight, cropTop, cropBottom,
+                                                      options, pagePool);
+                if (newOutputPath != null) {
+                    newlyCreatedOutputFiles.add(newOutputPath);
+                    logMessage("Created: " + newOutputPath.getFileName());
+                }
+                return;
+            }
+
+            // Pass crop parameters to processFolderAndCreateOutput
+            Path newOutputPath = processFolderAndCreateOutput(folder, root, outputName, splitMode,
+                                                  isJapaneseManga, deleteOriginals,
+                                                  skipImagesFromStart, skipImagesFromEnd,
+                                                  rotateWideImages, outputFormat,
+                                                  cropLeft, cropRight, cropTop, cropBottom,
+                                                  extractedFolders, options, pagePool);
+            if (newOutputPath != null) {
+                newlyCreatedOutputFiles.add(newOutputPath);
+                logMessage("Created: " + newOutputPath.getFileName());
+
+                // Add folder to cleanup list if output is not "folder"
+                // Only clean up extracted archive folders (intermediate) or if user wants originals deleted
+                if (!outputFormat.equals("folder")) {
+                    if (flattenDirectories) {
+                        // Clean up the top-level ancestor (direct child of root), not the leaf itself
+                        Path topLevelAncestor = root.resolve(root.relativize(folder).getName(0));
+                        if (extractedFolders.contains(topLevelAncestor) || deleteOriginals) {
+                            foldersToDelete.add(topLevelAncestor);
+                        }
+                    } else {
+                        if (extractedFolders.contains(folder) || deleteOriginals) {
+                            foldersToDelete.add(folder);
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logMessage("Error processing folder: " + folder + " - " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the name of a volume: the folder name, or the archive name without its extension.
+     */
+    private static String getVolumeName(Path volume) {
+        String name = volume.getFileName().toString();
+        if (Files.isRegularFile(volume) && name.lastIndexOf('.') > 0) {
+            name = name.substring(0, name.lastIndexOf('.'));
+        }
+        return name;
+    }
+
+    /**
+     * Returns true if one of the volumes is located inside another one.
+     */
+    private static boolean hasNestedVolumes(List<Path> folders) {
+        for (Path outer : folders) {
+            for (Path inner : folders) {
+                if (!outer.equals(inner) && inner.startsWith(outer)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static ThreadFactory namedThreadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger(0);
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static void awaitQuietly(ExecutorService pool) {
+        try {
+            pool.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     private static void logMessage(String message) {
+        List<String> buffer = LOG_BUFFER.get();
+        if (buffer != null) {
+            buffer.add(message);
+            return;
+        }
+        synchronized (LOG_LOCK) {
+            emitLogMessage(message);
+        }
+    }
+
+    /**
+     * Writes the buffered log lines of the current thread in one block, then stops buffering.
+     */
+    private static void flushLogBuffer() {
+        List<String> buffer = LOG_BUFFER.get();
+        LOG_BUFFER.remove();
+        if (buffer == null) {
+            return;
+        }
+        synchronized (LOG_LOCK) {
+            for (String message : buffer) {
+                emitLogMessage(message);
+            }
+        }
+    }
+
+    private static void emitLogMessage(String message) {
         System.out.println(message);
         if (ui != null) {
             SwingUtilities.invokeLater(() -> ui.publishLogMessage(message));
@@ -232,29 +524,14 @@ public class MangaPagesSplitter {
         }
     }
 
-    private static ArchiveExtractionResult extractAllArchives(String rootFolder) throws IOException {
+    private static ArchiveExtractionResult extractAllArchives(String rootFolder, boolean streamZipArchives,
+                                                              boolean deferExtraction, TempDiskUsage tempUsage) throws IOException {
         logMessage("Extracting archives in: " + rootFolder);
         List<Path> archivePaths = new ArrayList<>();
-        List<Path> extractedFolders = new ArrayList<>();
-
-        // Count total archives
-        long archiveCount;
-        try (Stream<Path> archiveCountStream = Files.list(Paths.get(rootFolder))) {
-            archiveCount = archiveCountStream
-                            .filter(Files::isRegularFile)
-                            .filter(path -> isArchiveFile(path.toString()))
-                            .count();
-        } catch (IOException e) {
-            archiveCount = 0;
-            logMessage("Error counting archives: " + e.getMessage());
-        }
-
-        final long totalArchives = archiveCount;
-        final int[] processedArchives = {0};
-        
-        if (totalArchives > 0) {
-            logMessage("Found " + totalArchives + " archives to extract");
-        }
+        // Filled by the extractor thread too when extraction is deferred
+        List<Path> extractedFolders = Collections.synchronizedList(new ArrayList<>());
+        List<Path> streamedArchives = new ArrayList<>();
+        List<Path> deferredArchives = new ArrayList<>();
 
         List<Path> archives;
         try (Stream<Path> archiveListStream = Files.list(Paths.get(rootFolder))) {
@@ -264,51 +541,164 @@ public class MangaPagesSplitter {
                 .collect(Collectors.toList());
         }
 
+        // Count total archives
+        final long totalArchives = archives.stream()
+                .filter(path -> !(streamZipArchives && isZipFile(path.toString()) && canDeferExtraction(path, archives)))
+                .filter(path -> !(deferExtraction && canDeferExtraction(path, archives)))
+                .count();
+        final int[] processedArchives = {0};
+        
+        if (totalArchives > 0) {
+            logMessage("Found " + totalArchives + " archives to extract");
+        }
+
         for (Path archivePath : archives) {
             // Check if processing was cancelled
             if (Thread.currentThread().isInterrupted() || (ui != null && ui.isCancelled())) {
-                return new ArchiveExtractionResult(archivePaths, extractedFolders);
+                return new ArchiveExtractionResult(archivePaths, extractedFolders, streamedArchives, deferredArchives);
             }
             
             archivePaths.add(archivePath); // Store the path for deletion later
-            String baseName = archivePath.getFileName().toString();
-            baseName = baseName.substring(0, baseName.lastIndexOf('.'));
-            Path extractDir = Paths.get(rootFolder, baseName);
+            if (streamZipArchives && isZipFile(archivePath.toString()) && canDeferExtraction(archivePath, archives)) {
+                streamedArchives.add(archivePath);
+                continue;
+            }
+            if (deferExtraction && canDeferExtraction(archivePath, archives)) {
+                deferredArchives.add(archivePath);
+                continue;
+            }
+            Path extractDir = getExtractDir(archivePath);
             try {
-                Files.createDirectories(extractDir);
-
                 // Update progress
                 if (totalArchives > 0) {
                     int percentage = (int)((processedArchives[0] * 100) / totalArchives);
                     updateProgress("Extracting archive " + (processedArchives[0] + 1) + "/" + totalArchives, percentage);
                 }
 
-                if (archivePath.toString().toLowerCase().endsWith(".rar") ||
-                    archivePath.toString().toLowerCase().endsWith(".cbr")) {
-                    try {
-                        // Try Junrar first
-                        Junrar.extract(archivePath.toFile(), extractDir.toFile());
-                        logMessage("Extracted with Junrar: " + archivePath.getFileName());
-                    } catch (RarException e) {
-                        // If Junrar fails (likely due to RAR5 format), try external program
-                        logMessage("Junrar failed, might be RAR5 format: " + e.getMessage());
-                        if (!extractWithExternalProgram(archivePath, extractDir)) {
-                            logMessage("Both Junrar and external extraction failed for: " + archivePath);
-                        }
-                    }
-                } else {
-                    // Extract ZIP
-                    extractZip(archivePath.toFile(), extractDir.toFile());
-                    logMessage("Extracted: " + archivePath.getFileName());
-                }
+                extractArchive(archivePath, extractDir);
                 extractedFolders.add(extractDir); // Track that this folder came from an archive
+                tempUsage.add(extractDir);
                 processedArchives[0]++;
             } catch (IOException e) {
                 logMessage("Error extracting archive: " + archivePath + " - " + e.getMessage());
             }
         }
 
-        return new ArchiveExtractionResult(archivePaths, extractedFolders);
+        return new ArchiveExtractionResult(archivePaths, extractedFolders, streamedArchives, deferredArchives);
+    }
+
+    private static void extractArchive(Path archivePath, Path extractDir) throws IOException {
+        Files.createDirectories(extractDir);
+
+        if (archivePath.toString().toLowerCase().endsWith(".rar") ||
+            archivePath.toString().toLowerCase().endsWith(".cbr")) {
+            try {
+                // Try Junrar first
+                Junrar.extract(archivePath.toFile(), extractDir.toFile());
+                logMessage("Extracted with Junrar: " + archivePath.getFileName());
+            } catch (RarException e) {
+                // If Junrar fails (likely due to RAR5 format), try external program
+                logMessage("Junrar failed, might be RAR5 format: " + e.getMessage());
+                if (!extractWithExternalProgram(archivePath, extractDir)) {
+                    logMessage("Both Junrar and external extraction failed for: " + archivePath);
+                }
+            }
+        } else {
+            // Extract ZIP
+            extractZip(archivePath.toFile(), extractDir.toFile());
+            logMessage("Extracted: " + archivePath.getFileName());
+        }
+    }
+
+    /**
+     * Returns the folder an archive is extracted to: its name without extension, next to it.
+     */
+    private static Path getExtractDir(Path archivePath) {
+        String baseName = archivePath.getFileName().toString();
+        baseName = baseName.substring(0, baseName.lastIndexOf('.'));
+        return archivePath.resolveSibling(baseName);
+    }
+
+    /**
+     * An archive whose folder already exists, or which shares its folder with another archive
+     * of the same name, is merged into that folder like when extracting everything first, so
+     * it is extracted up front instead of being processed on its own: otherwise both would be
+     * volumes of the same name, writing the same output.
+     */
+    private static boolean canDeferExtraction(Path archivePath, List<Path> archives) {
+        Path extractDir = getExtractDir(archivePath);
+        if (Files.exists(extractDir)) {
+            return false;
+        }
+        for (Path other : archives) {
+            if (!other.equals(archivePath) && getExtractDir(other).equals(extractDir)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Extracts a deferred archive once a slot of the rolling window is free.
+     *
+     * @return The extracted folder, holding the slot until it is released, or null if extraction failed
+     */
+    private static Path extractIntoWindow(Path archivePath, Semaphore window, List<Path> extractedFolders,
+                                          TempDiskUsage tempUsage) throws InterruptedException {
+        window.acquire();
+        Path extractDir = getExtractDir(archivePath);
+        try {
+            extractArchive(archivePath, extractDir);
+        } catch (IOException e) {
+            logMessage("Error extracting archive: " + archivePath + " - " + e.getMessage());
+            window.release();
+            return null;
+        }
+        if (Thread.currentThread().isInterrupted()) {
+            // Cancelled while extracting: nobody will read the result to free the slot
+            discardExtraction(extractDir, window, tempUsage);
+            return null;
+        }
+        extractedFolders.add(extractDir);
+        tempUsage.add(extractDir);
+        return extractDir;
+    }
+
+    /**
+     * Deletes an extracted archive that will not be processed and frees its window slot.
+     */
+    private static void discardExtraction(Path extractDir, Semaphore window, TempDiskUsage tempUsage) {
+        try {
+            deleteDirectory(extractDir);
+        } catch (IOException e) {
+            logMessage("Error cleaning up intermediate folder: " + extractDir + " - " + e.getMessage());
+        } finally {
+            tempUsage.remove(extractDir);
+            window.release();
+        }
+    }
+
+    /**
+     * Returns the volumes of an extracted archive: the folder itself, or in flatten mode
+     * every folder of its tree that directly contains images.
+     */
+    private static List<Path> listExtractedVolumes(Path extractDir, boolean flattenDirectories) throws IOException {
+        if (!flattenDirectories) {
+            return Collections.singletonList(extractDir);
+        }
+        try (Stream<Path> walk = Files.walk(extractDir)) {
+            return walk
+                .filter(Files::isDirectory)
+                .filter(dir -> {
+                    try (Stream<Path> children = Files.list(dir)) {
+                        return children.anyMatch(p -> Files.isRegularFile(p) && isImageFile(p.toString()));
+                    } catch (IOException e) {
+                        return false;
+                    }
+                })
+                .sorted()
+                .collect(Collectors.toList());
+        }
     }
 
     private static void extractZip(File zipFile, File destDir) throws IOException {
@@ -349,7 +739,8 @@ public class MangaPagesSplitter {
                                                 boolean deleteOriginals, int skipImagesFromStart, int skipImagesFromEnd,
                                                 boolean rotateWideImages, String outputFormat,
                                                 int cropLeft, int cropRight, int cropTop, int cropBottom,
-                                                List<Path> extractedFolders) throws IOException {
+                                                List<Path> extractedFolders, ProcessingOptions options,
+                                                ExecutorService pagePool) throws IOException {
         logMessage("Processing folder: " + folder);
 
         List<Path> imagePaths;
@@ -369,125 +760,30 @@ public class MangaPagesSplitter {
             return null;
         }
 
-        int totalImages = imagePaths.size();
-        logMessage("Found " + totalImages + " images in " + folder.getFileName());
-
-        // Calculate which images to actually process with exceptions
-        int firstImageToProcess = Math.min(skipImagesFromStart, totalImages);
-        int lastImageToProcess = Math.max(0, totalImages - skipImagesFromEnd);
-        int latestSinglePageImageIndex = -99;
+        logMessage("Found " + imagePaths.size() + " images in " + folder.getFileName());
 
         // Create temp directory for processed images to avoid modifying originals
         Path tempDir = Files.createTempDirectory("manga_processing_");
         try { // Wrapped in try-finally to ensure temp directory cleanup
 
-        // Process each image
-        for (int i = 0; i < imagePaths.size(); i++) {
-            // Check if processing was cancelled
-            if (Thread.currentThread().isInterrupted() || (ui != null && ui.isCancelled())) {
-                return null;
-            }
-
-            // Update progress (for image processing within the current folder)
-            if (totalImages > 0) {
-                updateProgress("Processing image " + (i + 1) + "/" + totalImages +
-                               " in " + folder.getFileName(), (int)((i * 100) / totalImages));
-            }
-
-            Path imagePath = imagePaths.get(i);
-            boolean shouldSplit = false;
-            boolean isWideImage = false;
-            boolean modified = false;
-
-            // Check if this image should be skipped based on position
-            boolean isExceptionImage = (i < firstImageToProcess) || (i >= lastImageToProcess);
-
-            // Read image once and process entirely in memory
-            try {
-                BufferedImage img = ImageIO.read(imagePath.toFile());
-                if (img != null) {
-                    // Apply cropping in memory
-                    if (cropLeft > 0 || cropRight > 0 || cropTop > 0 || cropBottom > 0) {
-                        img = cropImage(img, cropLeft, cropRight, cropTop, cropBottom);
-                        modified = true;
-
-                        // Log only the first few cropped images to avoid flooding the log
-                        if (i < 3) {
-                            logMessage("Cropped image: " + imagePath.getFileName());
-                        } else if (i == 3) {
-                            logMessage("Cropping remaining images...");
-                        }
-                    }
-
-                    int width = img.getWidth();
-                    int height = img.getHeight();
-                    isWideImage = width > height;
-
-                    // Determine if this image should be split based on mode, dimensions, and exceptions
-                    if (splitMode == 2 && !isExceptionImage) {
-                        shouldSplit = true;
-                    }
-                    else if (splitMode == 0 && !isExceptionImage) {
-                        // Try to preserve special double-page spreads that can exist within otherwise single page images
-                        // Here we consider such special spread to be a wide image that is within 3 pages of the latest single page image
-                        boolean isSpecialSpread = (i - latestSinglePageImageIndex < 3);
-                        shouldSplit = isWideImage && !isSpecialSpread;
-                        // Set the latest page index for single page images
-                        if (!isWideImage) {
-                            latestSinglePageImageIndex = i;
-                        }
-                        if (shouldSplit) {
-                            logMessage("Auto-detected double page for: " + imagePath.getFileName());
-                        }
-                    }
-
-                    // Rotate in memory if requested and not splitting
-                    if (rotateWideImages && isWideImage && !shouldSplit) {
-                        img = rotateImage(img);
-                        modified = true;
-                        logMessage("Rotated wide image: " + imagePath.getFileName());
-                    }
-
-                    if (isExceptionImage && (splitMode == 0 || splitMode == 2)) {
-                        logMessage("Skipping split for exception image: " + imagePath.getFileName());
-                    }
-
-                    if (shouldSplit) {
-                        BufferedImage[] halves = splitImage(img, isJapaneseManga);
-                        logMessage("Split image (" + (isJapaneseManga ? "right to left" : "left to right") + "): " + imagePath.getFileName());
-                        String baseName = imagePath.getFileName().toString();
-                        baseName = baseName.substring(0, baseName.lastIndexOf('.'));
-                        String ext = imagePath.toString().substring(imagePath.toString().lastIndexOf('.') + 1);
-
-                        Path firstPage = tempDir.resolve(baseName + "_1." + ext);
-                        Path secondPage = tempDir.resolve(baseName + "_2." + ext);
-
-                        if (!ImageIO.write(halves[0], ext, firstPage.toFile())) {
-                            logMessage("Warning: failed to write image: " + firstPage.getFileName());
-                        }
-                        if (!ImageIO.write(halves[1], ext, secondPage.toFile())) {
-                            logMessage("Warning: failed to write image: " + secondPage.getFileName());
-                        }
-
-                        processedFiles.add(firstPage);
-                        processedFiles.add(secondPage);
-                    } else if (modified) {
-                        String ext = imagePath.toString().substring(imagePath.toString().lastIndexOf('.') + 1);
-                        Path tempFile = tempDir.resolve(imagePath.getFileName());
-                        if (!ImageIO.write(img, ext, tempFile.toFile())) {
-                            logMessage("Warning: failed to write image: " + tempFile.getFileName());
+        // Modified pages are flushed to the temp directory, untouched ones are used in place
+        List<PageResult> pageResults = transformPages(folder.getFileName().toString(), imagePaths, splitMode,
+                isJapaneseManga, skipImagesFromStart, skipImagesFromEnd, rotateWideImages,
+                cropLeft, cropRight, cropTop, cropBottom, options, pagePool,
+                (index, result) -> {
+                    for (OutputPage page : result.pages) {
+                        if (page.data != null) {
+                            Path tempFile = tempDir.resolve(page.name);
+                            Files.write(tempFile, page.data);
+                            processedFiles.add(tempFile);
+                        } else {
+                            processedFiles.add(page.source);
                         }
-                        processedFiles.add(tempFile);
-                    } else {
-                        processedFiles.add(imagePath);
                     }
-                } else {
-                    processedFiles.add(imagePath);
-                }
-            } catch (IOException e) {
-                logMessage("Error processing image: " + imagePath + " - " + e.getMessage());
-                processedFiles.add(imagePath);
-            }
+                    return result;
+                });
+        if (pageResults == null) {
+            return null; // Cancelled
         }
 
         if (!processedFiles.isEmpty()) {
@@ -552,18 +848,8 @@ public class MangaPagesSplitter {
                 finalPath = rootFolder.resolve(archiveFileName);
                 
                 // Check if this would overwrite an original archive file (same name and extension)
-                if (!deleteOriginals && Files.exists(finalPath)) {
-                    // This is an original archive with the same name - preserve it by renaming
-                    Path backupPath = rootFolder.resolve(folderName + "_original" + extension);
-                    try {
-                        if (Files.exists(backupPath)) {
-                            logMessage("Warning: overwriting previous backup: " + backupPath.getFileName());
-                        }
-                        Files.move(finalPath, backupPath, StandardCopyOption.REPLACE_EXISTING);
-                        logMessage("Preserved original archive as: " + backupPath.getFileName());
-                    } catch (IOException e) {
-                        logMessage("Error preserving original archive: " + e.getMessage());
-                    }
+                if (!deleteOriginals) {
+                    preserveExistingArchive(rootFolder, folderName, extension);
                 }
                 
                 logMessage("Creating " + outputFormat.toUpperCase() + " archive: " + finalPath.getFileName());
@@ -571,11 +857,11 @@ public class MangaPagesSplitter {
                 switch(outputFormat) {
                     case "cbz":
                     case "zip":
-                        createZipArchive(processedFiles, finalPath.toFile());
+                        createZipArchive(processedFiles, finalPath.toFile(), options);
                         break;
                     case "cbr":
                     case "rar":
-                        createRarArchive(processedFiles, finalPath.toFile());
+                        createRarArchive(processedFiles, finalPath.toFile(), options);
                         break;
                 }
             }
@@ -596,73 +882,1171 @@ public class MangaPagesSplitter {
         }
     }
     
-    private static BufferedImage rotateImage(BufferedImage originalImage) {
-        int width = originalImage.getWidth();
-        int height = originalImage.getHeight();
-
-        BufferedImage rotatedImage = new BufferedImage(height, width, originalImage.getType());
-
-        AffineTransform rotation = new AffineTransform();
-        rotation.translate(height, 0);
-        rotation.rotate(Math.toRadians(90));
-
-        Graphics2D g2d = rotatedImage.createGraphics();
-        g2d.setTransform(rotation);
-        g2d.drawImage(originalImage, 0, 0, null);
-        g2d.dispose();
-
-        return rotatedImage;
+    /**
+     * Renames an existing archive that the output archive would overwrite to "<name>_original.<ext>".
+     */
+    private static void preserveExistingArchive(Path rootFolder, String folderName, String extension) {
+        Path finalPath = rootFolder.resolve(folderName + extension);
+        if (Files.exists(finalPath)) {
+            // This is an original archive with the same name - preserve it by renaming
+            Path backupPath = rootFolder.resolve(folderName + "_original" + extension);
+            try {
+                if (Files.exists(backupPath)) {
+                    logMessage("Warning: overwriting previous backup: " + backupPath.getFileName());
+                }
+                Files.move(finalPath, backupPath, StandardCopyOption.REPLACE_EXISTING);
+                logMessage("Preserved original archive as: " + backupPath.getFileName());
+            } catch (IOException e) {
+                logMessage("Error preserving original archive: " + e.getMessage());
+            }
+        }
     }
 
-    private static BufferedImage[] splitImage(BufferedImage originalImage, boolean isJapaneseManga) {
-        int width = originalImage.getWidth();
-        int height = originalImage.getHeight();
-
-        BufferedImage firstHalf, secondHalf;
+    /**
+     * Transcodes a ZIP/CBZ archive into a ZIP/CBZ archive without extracting it: pages are read
+     * from the source archive, transformed in memory and streamed into the new archive.
+     * The new archive is written next to the final path first, since it usually replaces its source.
+     *
+     * @return The created archive, or null if there was nothing to do or processing was cancelled
+     */
+    private static Path processArchiveAndCreateOutput(Path archive, Path rootFolder, String outputName, int splitMode,
+                                                      boolean isJapaneseManga, boolean deleteOriginals,
+                                                      int skipImagesFromStart, int skipImagesFromEnd,
+                                                      boolean rotateWideImages, String outputFormat,
+                                                      int cropLeft, int cropRight, int cropTop, int cropBottom,
+                                                      ProcessingOptions options, ExecutorService pagePool) throws IOException {
+        logMessage("Streaming archive: " + archive);
+        String extension = "." + outputFormat;
+        Path finalPath = rootFolder.resolve(outputName + extension);
+        Path partPath = rootFolder.resolve(outputName + extension + ".part");
+        boolean created = false;
+
+        try (FileSystem zipFs = FileSystems.newFileSystem(archive, (ClassLoader) null)) {
+            List<Path> imagePaths = new ArrayList<>();
+            for (Path zipRoot : zipFs.getRootDirectories()) {
+                try (Stream<Path> walk = Files.walk(zipRoot)) {
+                    walk.filter(Files::isRegularFile)
+                        .filter(path -> isImageFile(path.toString()))
+                        .forEach(imagePaths::add);
+                }
+            }
+            // Sorted for deterministic skip-from-start/end behavior, like extracted folders
+            imagePaths.sort(null);
 
-        if (isJapaneseManga) {
-            firstHalf = getRightHalf(originalImage, width, height);
-            secondHalf = getLeftHalf(originalImage, width, height);
-        } else {
-            firstHalf = getLeftHalf(originalImage, width, height);
-            secondHalf = getRightHalf(originalImage, width, height);
+            if (imagePaths.isEmpty()) {
+                logMessage("No images found in: " + archive.getFileName());
+                return null;
+            }
+            logMessage("Found " + imagePaths.size() + " images in " + archive.getFileName());
+            logMessage("Creating " + outputFormat.toUpperCase() + " archive: " + finalPath.getFileName());
+            // Entries are named after their page file; when folders of the archive hold files of the
+            // same name, every entry keeps its folder so that no page replaces another
+            boolean nested = hasDuplicateFileNames(imagePaths);
+
+            int[] rawCopies = {0};
+            ZipCompressionPolicy policy = new ZipCompressionPolicy(options);
+            try (ZipArchiveReader source = new ZipArchiveReader(archive);
+                 ZipArchiveWriter zip = new ZipArchiveWriter(Files.newOutputStream(partPath), policy)) {
+                // Pages reach the writer in page order, so they can go straight into the archive
+                List<PageResult> pageResults = transformPages(getVolumeName(archive), imagePaths, splitMode,
+                        isJapaneseManga, skipImagesFromStart, skipImagesFromEnd, rotateWideImages,
+                        cropLeft, cropRight, cropTop, cropBottom, options, pagePool,
+                        (index, result) -> {
+                            Path folder = imagePaths.get(index).getParent();
+                            String prefix = nested && folder.getNameCount() > 0
+                                    ? folder.toString().substring(1) + "/" : "";
+                            for (OutputPage page : result.pages) {
+                                String name = prefix + page.name;
+                                if (page.data != null) {
+                                    zip.putEntry(name, page.data);
+                                    continue;
+                                }
+                                // Untouched page: copy its compressed bytes instead of inflating and deflating them again
+                                ZipArchiveReader.Entry entry = source.getEntry(page.source.toString().substring(1));
+                                if (entry != null && !entry.isEncrypted()) {
+                                    try (InputStream raw = source.openRaw(entry)) {
+                                        zip.putRawEntry(name, entry, raw);
+                                    }
+                                    rawCopies[0]++;
+                                } else {
+                                    zip.putEntry(name, Files.readAllBytes(page.source));
+                                }
+                            }
+                            return result;
+                        });
+                if (pageResults == null) {
+                    return null; // Cancelled
+                }
+            }
+            if (rawCopies[0] > 0) {
+                logMessage("Copied " + rawCopies[0] + " untouched pages without recompression");
+            }
+            logMessage("Archive entries: " + policy.summary());
+            created = true;
+        } finally {
+            if (!created) {
+                Files.deleteIfExists(partPath);
+            }
         }
 
-        return new BufferedImage[]{firstHalf, secondHalf};
+        // The source archive is closed now, it can be preserved or replaced
+        if (!deleteOriginals) {
+            preserveExistingArchive(rootFolder, outputName, extension);
+        }
+        Files.move(partPath, finalPath, StandardCopyOption.REPLACE_EXISTING);
+        return finalPath;
     }
 
-    private static BufferedImage getLeftHalf(BufferedImage originalImage, int width, int height) {
-        return originalImage.getSubimage(0, 0, width/2, height);
+    /**
+     * Returns true if two of the files have the same name, in different folders.
+     */
+    private static boolean hasDuplicateFileNames(List<Path> files) {
+        Set<String> names = new HashSet<>();
+        for (Path file : files) {
+            if (!names.add(file.getFileName().toString())) {
+                return true;
+            }
+        }
+        return false;
     }
 
-    private static BufferedImage getRightHalf(BufferedImage originalImage, int width, int height) {
-        return originalImage.getSubimage(width/2, 0, width - width/2, height);
+    /**
+     * Split/rotate decision for one page, made before any pixel work.
+     */
+    private static class PagePlan {
+        boolean readable;
+        boolean isExceptionImage;
+        boolean isWideImage;
+        boolean shouldSplit;
+        boolean autoDetected;
+        boolean rotate;
+        boolean crop;
+        // Long vertical strip cut into pages at blank rows (strip slicing split mode)
+        boolean slice;
+        // Only pages that are actually modified get their pixels decoded
+        boolean decode;
+        // Set once the page was transformed on its JPEG coefficients instead of its pixels
+        boolean lossless;
+        // Borders are searched on the page, and set once some were actually trimmed
+        boolean trim;
+        boolean trimmed;
+        // The page is checked for blankness, and set once it was found blank and dropped
+        boolean inspect;
+        boolean blank;
+        // The page is larger than the screen of the device profile, and set once an output image was downscaled
+        boolean downscale;
+        boolean downscaled;
+        // Set once an output image of the page was encoded with a single gray channel
+        boolean grayscale;
+        // Name of the copy of this page kept instead of it, or null if it is not a duplicate
+        String duplicateOf;
+        // Dimensions from the image header
+        int width;
+        int height;
+        // Why the page exceeds the pixel limits and is passed through without being decoded, or null
+        String oversized;
+        // Estimated memory of the decoded page, and whether it is too large to share the budget
+        long memory;
+        boolean lowMemory;
     }
 
-    // Renamed to be more specific
-    private static void createZipArchive(List<Path> imageFiles, File outputFile) throws IOException {
-        System.out.println("Creating ZIP/CBZ: " + outputFile);
+    /**
+     * One output image: its file name and either its encoded bytes, or the source file
+     * to use as is (untouched original page).
+     */
+    private static class OutputPage {
+        public final String name;
+        public final byte[] data;
+        public final Path source;
+
+        public OutputPage(String name, byte[] data, Path source) {
+            this.name = name;
+            this.data = data;
+            this.source = source;
+        }
+    }
 
-        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(outputFile))) {
-            byte[] buffer = new byte[1024];
+    /**
+     * Output images of one page, with the log lines produced while processing it.
+     */
+    private static class PageResult {
+        public final List<OutputPage> pages;
+        public final List<String> log;
 
-            for (Path file : imageFiles) {
-                ZipEntry entry = new ZipEntry(file.getFileName().toString());
-                zos.putNextEntry(entry);
+        public PageResult(List<OutputPage> pages, List<String> log) {
+            this.pages = pages;
+            this.log = log;
+        }
+    }
+
+    /**
+     * Plans the pages of a volume and runs them through the page pipeline. The writer
+     * receives the transformed pages in page order.
+     *
+     * @return The page results in page order, or null if processing was cancelled
+     */
+    private static List<PageResult> transformPages(String volumeName, List<Path> imagePaths, int splitMode,
+                                                   boolean isJapaneseManga, int skipImagesFromStart, int skipImagesFromEnd,
+                                                   boolean rotateWideImages,
+                                                   int cropLeft, int cropRight, int cropTop, int cropBottom,
+                                                   ProcessingOptions options, ExecutorService pagePool,
+                                                   PagePipeline.Writer<PageResult, PageResult> writer) throws IOException {
+        int totalImages = imagePaths.size();
+
+        // Calculate which images to actually process with exceptions
+        int firstImageToProcess = Math.min(skipImagesFromStart, totalImages);
+        int lastImageToProcess = Math.max(0, totalImages - skipImagesFromEnd);
+
+        // Decide up front which pages get split or rotated (from image headers only), so the
+        // pages themselves can then be transformed in parallel with the same result as in order
+        PagePlan[] plans = planPages(imagePaths, splitMode, firstImageToProcess, lastImageToProcess,
+                                     rotateWideImages, cropLeft, cropRight, cropTop, cropBottom,
+                                     options, pagePool);
+        if (plans == null) {
+            return null;
+        }
 
-                try (FileInputStream fis = new FileInputStream(file.toFile())) {
-                    int length;
-                    while ((length = fis.read(buffer)) > 0) {
-                        zos.write(buffer, 0, length);
+        // Process each image through the read-ahead / transform / write-behind pipeline,
+        // results are reassembled in the sorted image order
+        AtomicInteger processedImages = new AtomicInteger(0);
+        // Counted as they are written, since the pages of sliced strips are not part of the results
+        int[] encodedImages = {0};
+        long[] encodedBytes = {0};
+        PagePipeline pipeline = new PagePipeline(volumeName,
+                options.readAheadDepth, options.writeBehindDepth, pagePool, options.pageThreads,
+                () -> Thread.currentThread().isInterrupted() || (ui != null && ui.isCancelled()));
+        List<PageResult> pageResults;
+        try {
+            pageResults = pipeline.<byte[], PageResult, PageResult>run(totalImages,
+                // Read-ahead: load the bytes of the pages that will be decoded
+                index -> plans[index].decode || plans[index].inspect ? Files.readAllBytes(imagePaths.get(index)) : null,
+                // Transform: decode, crop, split, rotate and encode in memory
+                (index, bytes, emitter) -> {
+                    if (plans[index].slice) {
+                        // The pages of a strip go to the writer as they are cut, once the pages before it are
+                        // written: waiting for that before reserving memory leaves the budget to those pages
+                        emitter.awaitTurn();
+                    }
+                    // Wait until the decoded page fits in the memory budget; it is given back before the
+                    // result is queued, so a page waiting for the writer never holds memory others need
+                    long reserved = memoryBudget.acquire(plans[index].memory);
+                    PageResult result;
+                    try {
+                        result = captureLogs(() -> processPage(imagePaths.get(index), index, bytes,
+                                plans[index], splitMode, isJapaneseManga,
+                                cropLeft, cropRight, cropTop, cropBottom, options, emitter));
+                    } finally {
+                        memoryBudget.release(reserved);
+                    }
+
+                    // Update progress (for image processing within the current folder)
+                    int done = processedImages.incrementAndGet();
+                    if (reportImageProgress) {
+                        updateProgress("Processing image " + done + "/" + totalImages +
+                                       " in " + volumeName, (int)((done * 100) / totalImages));
                     }
+                    return result;
+                },
+                // Write-behind: store the pages, in page order
+                (index, result) -> {
+                    for (OutputPage page : result.pages) {
+                        if (page.data != null) {
+                            encodedImages[0]++;
+                            encodedBytes[0] += page.data.length;
+                        }
+                    }
+                    return writer.write(index, result);
+                });
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Page processing failed: " + e, e);
+        }
+        if (pageResults == null) {
+            return null;
+        }
+        for (PageResult result : pageResults) {
+            for (String message : result.log) {
+                logMessage(message);
+            }
+        }
+        int decodedPages = 0;
+        int losslessPages = 0;
+        int lowMemoryPages = 0;
+        int oversizedPages = 0;
+        int trimmedPages = 0;
+        int blankPages = 0;
+        int duplicatePages = 0;
+        int grayscalePages = 0;
+        int downscaledPages = 0;
+        for (PagePlan plan : plans) {
+            if (plan.downscaled) {
+                downscaledPages++;
+            }
+            if (plan.grayscale) {
+                grayscalePages++;
+            }
+            if (plan.duplicateOf != null) {
+                duplicatePages++;
+            }
+            if (plan.trimmed) {
+                trimmedPages++;
+            }
+            if (plan.blank) {
+                blankPages++;
+            }
+            if (plan.lowMemory) {
+                lowMemoryPages++;
+            }
+            if (plan.oversized != null) {
+                oversizedPages++;
+            }
+            if (plan.lossless) {
+                losslessPages++;
+            } else if (plan.decode) {
+                decodedPages++;
+            }
+        }
+        logMessage("Decoded " + decodedPages + " of " + totalImages + " pages in " + volumeName
+                   + ", the others were kept as is");
+        if (losslessPages > 0) {
+            logMessage("Transformed " + losslessPages + " JPEG pages losslessly in " + volumeName);
+        }
+        if (options.dropDuplicatePages) {
+            logMessage("Dropped " + duplicatePages + " duplicate pages of " + totalImages + " in " + volumeName);
+        }
+        if (options.dropBlankPages) {
+            logMessage("Dropped " + blankPages + " blank pages of " + totalImages + " in " + volumeName);
+        }
+        if (options.autoTrim) {
+            logMessage("Trimmed the borders of " + trimmedPages + " of " + totalImages + " pages in " + volumeName);
+        }
+        DeviceProfile profile = DeviceProfile.get(options.deviceProfile);
+        if (profile != null) {
+            logMessage("Downscaled " + downscaledPages + " of " + totalImages + " pages to fit " + profile.name
+                       + " in " + volumeName);
+        }
+        if (options.encodeGrayscale && !options.einkOutput) {
+            logMessage("Encoded " + grayscalePages + " of " + decodedPages + " decoded pages in grayscale in " + volumeName);
+        }
+        if (oversizedPages > 0) {
+            logMessage(oversizedPages + " pages of " + volumeName + " exceeded the pixel limits and were kept as is");
+        }
+        if (lowMemoryPages > 0) {
+            logMessage(lowMemoryPages + " pages of " + volumeName + " exceeded the memory budget and were processed alone");
+        }
+        if (encodedImages[0] > 0) {
+            logMessage("Encoded " + encodedImages[0] + " output images in " + volumeName + ", "
+                       + (encodedBytes[0] / encodedImages[0] / 1024) + " KB per image on average");
+        }
+        logMessage("Pipeline queues for " + volumeName + ": " + pipeline.occupancyReport());
+        return pageResults;
+    }
+
+    /**
+     * Reads the dimensions of every page (in parallel if a pool is given) and decides which
+     * pages are split or rotated. Auto-detection classifies each page against the whole
+     * volume, so the decisions do not depend on the order the pages are transformed in.
+     *
+     * @return One plan per image, or null if processing was cancelled
+     */
+    private static PagePlan[] planPages(List<Path> imagePaths, int splitMode, int firstImageToProcess,
+                                        int lastImageToProcess, boolean rotateWideImages,
+                                        int cropLeft, int cropRight, int cropTop, int cropBottom,
+                                        ProcessingOptions options, ExecutorService pagePool) throws IOException {
+        int stripPageHeight = options.stripPageHeight;
+        DeviceProfile profile = DeviceProfile.get(options.deviceProfile);
+        List<Callable<Dimension>> sizeTasks = new ArrayList<>();
+        for (Path imagePath : imagePaths) {
+            sizeTasks.add(() -> readImageSize(imagePath));
+        }
+        List<Dimension> sizes = runTasks(sizeTasks, pagePool);
+        if (sizes == null) {
+            return null;
+        }
+
+        PagePlan[] plans = new PagePlan[imagePaths.size()];
+        // Dimensions after cropping, and those of the pages auto-detection classifies
+        Dimension[] keptSizes = new Dimension[plans.length];
+        Dimension[] candidates = new Dimension[plans.length];
+        for (int i = 0; i < plans.length; i++) {
+            PagePlan plan = new PagePlan();
+            plans[i] = plan;
+            Dimension size = sizes.get(i);
+            // Check if this image should be skipped based on position
+            plan.isExceptionImage = (i < firstImageToProcess) || (i >= lastImageToProcess);
+            if (size == null) {
+                continue;
+            }
+            plan.readable = true;
+            plan.width = size.width;
+            plan.height = size.height;
+
+            // Cropping is applied before the width/height comparison
+            int width = size.width;
+            int height = size.height;
+            if (isCropApplicable(width, height, cropLeft, cropRight, cropTop, cropBottom)) {
+                width = Math.max(1, width - cropLeft - cropRight);
+                height = Math.max(1, height - cropTop - cropBottom);
+                plan.crop = cropLeft > 0 || cropRight > 0 || cropTop > 0 || cropBottom > 0;
+            }
+            plan.isWideImage = width > height;
+            keptSizes[i] = new Dimension(width, height);
+            if (splitMode == 0 && !plan.isExceptionImage) {
+                candidates[i] = keptSizes[i];
+            }
+        }
+
+        DoublePageClassifier classifier = null;
+        if (splitMode == 0) {
+            classifier = new DoublePageClassifier(candidates);
+            logMessage("Auto-detect typical single page: " + classifier.describeSinglePage());
+            if (classifier.getSpreadsKept() > 0) {
+                logMessage("Kept " + classifier.getSpreadsKept() + " double-page spreads whole among single pages");
+            }
+        }
+
+        for (int i = 0; i < plans.length; i++) {
+            PagePlan plan = plans[i];
+            Dimension size = sizes.get(i);
+            if (size == null) {
+                continue;
+            }
+            int width = keptSizes[i].width;
+            int height = keptSizes[i].height;
+
+            // Determine if this image should be split based on mode, dimensions, and exceptions
+            if (splitMode == 2 && !plan.isExceptionImage) {
+                plan.shouldSplit = true;
+            }
+            else if (splitMode == 0 && !plan.isExceptionImage) {
+                // Special double-page spreads within otherwise single page volumes are kept whole
+                plan.shouldSplit = classifier.shouldSplit(i);
+                plan.autoDetected = plan.shouldSplit;
+            }
+
+            // Strips taller than the largest page are sliced, whatever their position in the volume
+            if (splitMode == 3) {
+                plan.slice = height > StripSlicer.maxPageHeight(stripPageHeight);
+            }
+
+            // Rotate if requested and not splitting
+            plan.rotate = rotateWideImages && plan.isWideImage && !plan.shouldSplit;
+            plan.trim = options.autoTrim && !plan.slice;
+            // Pages larger than the device screen once split or rotated are downscaled
+            if (profile != null) {
+                plan.downscale = plan.shouldSplit ? profile.exceeds(width - width / 2, height)
+                                                  : plan.rotate ? profile.exceeds(height, width) : profile.exceeds(width, height);
+            }
+            // E-ink output re-encodes every page
+            plan.decode = plan.crop || plan.shouldSplit || plan.rotate || plan.slice || plan.trim || plan.downscale
+                          || options.einkOutput;
+            plan.inspect = options.dropBlankPages;
+            if (plan.decode || plan.inspect || options.dropDuplicatePages) {
+                // Strips are decoded one band of a few pages at a time, the whole area of other pages is needed
+                int decodedHeight = plan.slice ? Math.min(size.height, StripSlicer.bandHeight(width, stripPageHeight))
+                                               : size.height;
+                plan.oversized = checkPixelLimits(imagePaths.get(i), size.width, decodedHeight, size, options);
+                if (plan.oversized != null) {
+                    // Never decoded, whatever the plan: the page is passed through untouched
+                    plan.decode = false;
+                    plan.inspect = false;
+                    continue;
+                }
+            }
+            if (plan.slice) {
+                plan.memory = MemoryBudget.estimate(width, Math.min(height, StripSlicer.bandHeight(width, stripPageHeight)), false);
+                if (isProgressiveJpeg(imagePaths.get(i))) {
+                    // Not read band after band: the decoder keeps the coefficients of the whole strip,
+                    // 2 bytes per sample of up to 3 full-resolution components
+                    plan.memory += (long) size.width * size.height * 6;
+                }
+            } else if (plan.decode) {
+                // Only the kept area is decoded, one split half at a time unless its gutter or borders are searched
+                boolean halves = plan.shouldSplit && !options.detectGutter && !plan.trim;
+                plan.memory = MemoryBudget.estimate(halves ? width - width / 2 : width, height, plan.rotate);
+            }
+            if (profile != null && plan.decode) {
+                // The downscaled copy of an encoded image fits the screen, at most 4 bytes per pixel
+                plan.memory += (long) profile.maxWidth * profile.maxHeight * 4;
+            }
+            if (options.einkOutput) {
+                // The 4-bit copy of an encoded image takes half a byte per pixel, an eighth of the decoded estimate
+                plan.memory += plan.memory / 8;
+            } else if (options.encodeGrayscale) {
+                // The grayscale copy of an encoded image takes one byte per pixel, a quarter of the decoded estimate
+                plan.memory += plan.memory / 4;
+            }
+            if (plan.inspect) {
+                // The blank check holds the JPEG coefficients of the whole page, before any decode
+                plan.memory = Math.max(plan.memory, MemoryBudget.estimate(size.width, size.height, false));
+            }
+            plan.lowMemory = memoryBudget.exceeds(plan.memory);
+        }
+
+        if (options.dropDuplicatePages && !findDuplicates(imagePaths, plans, pagePool)) {
+            return null;
+        }
+        return plans;
+    }
+
+    /**
+     * Hashes every page (in parallel if a pool is given) and marks the copies of a page, so
+     * only the first one is transformed and written, in its own position.
+     *
+     * @return false if processing was cancelled
+     */
+    private static boolean findDuplicates(List<Path> imagePaths, PagePlan[] plans, ExecutorService pagePool)
+            throws IOException {
+        List<Callable<long[]>> hashTasks = new ArrayList<>();
+        for (int i = 0; i < plans.length; i++) {
+            PagePlan plan = plans[i];
+            Path imagePath = imagePaths.get(i);
+            if (!plan.readable || plan.oversized != null || plan.slice) {
+                hashTasks.add(() -> null);
+                continue;
+            }
+            hashTasks.add(() -> {
+                // The JPEG coefficients of the whole page are held while hashing it
+                long reserved = memoryBudget.acquire(MemoryBudget.estimate(plan.width, plan.height, false));
+                try {
+                    return DuplicatePageFinder.hash(Files.readAllBytes(imagePath));
+                } catch (IOException e) {
+                    return null;
+                } finally {
+                    memoryBudget.release(reserved);
                 }
-                zos.closeEntry();
+            });
+        }
+        List<long[]> hashes = runTasks(hashTasks, pagePool);
+        if (hashes == null) {
+            return false;
+        }
+
+        DuplicatePageFinder finder = new DuplicatePageFinder(plans.length);
+        for (int i = 0; i < plans.length; i++) {
+            if (hashes.get(i) != null) {
+                finder.add(i, hashes.get(i), plans[i].width, plans[i].height);
             }
         }
+        int[] keptInstead = finder.findDuplicates();
+        for (int i = 0; i < plans.length; i++) {
+            if (keptInstead[i] >= 0) {
+                // Never read nor decoded again
+                PagePlan plan = plans[i];
+                plan.duplicateOf = imagePaths.get(keptInstead[i]).getFileName().toString();
+                plan.decode = false;
+                plan.inspect = false;
+                plan.memory = 0;
+                plan.lowMemory = false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks the header dimensions of a page against the pixel limits, so decompression bombs
+     * and pathological pages are never decoded.
+     *
+     * @param decodedWidth Width of the area decoded at once
+     * @param decodedHeight Height of the area decoded at once
+     * @param size Full image dimensions, for the decoded size to file size ratio
+     * @return The reason the page must not be decoded, or null if it is within the limits
+     */
+    private static String checkPixelLimits(Path imagePath, int decodedWidth, int decodedHeight, Dimension size,
+                                           ProcessingOptions options) {
+        long pixels = (long) decodedWidth * decodedHeight;
+        if (options.maxPageMegapixels > 0 && pixels > options.maxPageMegapixels * 1_000_000L) {
+            return String.format("%dx%d px, over %d megapixels", size.width, size.height, options.maxPageMegapixels);
+        }
+        if (options.maxDecodedRatio > 0) {
+            try {
+                long fileSize = Math.max(1, Files.size(imagePath));
+                long decodedSize = MemoryBudget.estimate(size.width, size.height, false);
+                if (decodedSize / fileSize > options.maxDecodedRatio) {
+                    return String.format("%dx%d px from %d bytes, decodes to over %d times its file size",
+                                         size.width, size.height, fileSize, options.maxDecodedRatio);
+                }
+            } catch (IOException e) {
+                // Unknown file size, only the pixel count is checked
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the width and height of an image from its header, without decoding the pixels.
+     *
+     * @return The image size, or null if no reader can handle the file
+     */
+    private static Dimension readImageSize(Path imagePath) {
+        try (InputStream in = Files.newInputStream(imagePath)) {
+            return ImageCodecs.readSize(in);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Tells whether an image is a progressive JPEG, from its header.
+     */
+    private static boolean isProgressiveJpeg(Path imagePath) {
+        if (!isJpegFile(imagePath.toString())) {
+            return false;
+        }
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(imagePath))) {
+            return ImageCodecs.isProgressiveJpeg(in);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Crops, splits and/or rotates one page according to its plan, entirely in memory.
+     * Modified pages are encoded, untouched pages are referenced as is without being decoded.
+     *
+     * @param bytes The content of the image file, or null if it does not need to be decoded
+     * @param options Lossless JPEG and encoder settings
+     * @param emitter Hands the pages of a sliced strip to the writer as they are cut
+     * @return The output images of this page, in reading order (after the emitted ones)
+     */
+    private static List<OutputPage> processPage(Path imagePath, int i, byte[] bytes, PagePlan plan,
+                                                int splitMode, boolean isJapaneseManga,
+                                                int cropLeft, int cropRight, int cropTop, int cropBottom,
+                                                ProcessingOptions options, PagePipeline.Emitter<PageResult> emitter)
+            throws InterruptedException {
+        List<OutputPage> pageFiles = new ArrayList<>();
+        boolean modified = false;
+
+        // Duplicate and blank pages are dropped before any other work
+        if (plan.duplicateOf != null) {
+            logMessage("Dropped duplicate page: " + imagePath.getFileName() + " (same as " + plan.duplicateOf + ")");
+            return pageFiles;
+        }
+        if (plan.inspect && bytes != null) {
+            try {
+                if (BlankPageDetector.isBlank(bytes)) {
+                    plan.blank = true;
+                    logMessage("Dropped blank page: " + imagePath.getFileName());
+                    return pageFiles;
+                }
+            } catch (IOException e) {
+                // Not decodable here either: the page goes through the usual path
+            }
+        }
+
+        // The header was enough to tell this page stays as it is
+        if (plan.readable && !plan.decode) {
+            if (plan.oversized != null) {
+                logMessage("Warning: " + imagePath.getFileName() + " exceeds the pixel limits (" + plan.oversized
+                           + "), kept as is");
+                pageFiles.add(originalPage(imagePath));
+                return pageFiles;
+            }
+            if (cropLeft > 0 || cropRight > 0 || cropTop > 0 || cropBottom > 0) {
+                logMessage("Warning: crop values exceed image dimensions, skipping crop");
+            }
+            if (plan.isExceptionImage && (splitMode == 0 || splitMode == 2)) {
+                logMessage("Skipping split for exception image: " + imagePath.getFileName());
+            }
+            pageFiles.add(originalPage(imagePath));
+            return pageFiles;
+        }
+
+        // JPEG cuts and rotations falling on MCU boundaries need no decoding nor re-encoding (unless for e-ink or downscaling)
+        if (options.losslessJpeg && !options.einkOutput && !plan.downscale && !plan.slice && bytes != null && isJpegFile(imagePath.toString())
+                && (plan.crop || (cropLeft == 0 && cropRight == 0 && cropTop == 0 && cropBottom == 0))) {
+            List<OutputPage> losslessPages = transformJpegLosslessly(imagePath, i, bytes, plan, splitMode,
+                    isJapaneseManga, cropLeft, cropRight, cropTop, cropBottom, options);
+            if (losslessPages != null) {
+                plan.lossless = true;
+                return losslessPages;
+            }
+        }
+
+        // Decode only the area that is kept, one split half at a time, and process it in memory
+        try {
+            if (plan.slice && bytes != null) {
+                return sliceStrip(imagePath, i, bytes, plan, cropLeft, cropRight, cropTop, cropBottom, options, emitter);
+            }
+            Rectangle area = new Rectangle(0, 0, plan.width, plan.height);
+            boolean cropped = false;
+            if (cropLeft > 0 || cropRight > 0 || cropTop > 0 || cropBottom > 0) {
+                area = cropArea(plan.width, plan.height, cropLeft, cropRight, cropTop, cropBottom);
+                cropped = area != null;
+                if (!cropped) {
+                    area = new Rectangle(0, 0, plan.width, plan.height);
+                }
+            }
+            // The gutter and the borders are searched on the whole page, otherwise halves are decoded one after the other
+            boolean findGutter = plan.shouldSplit && options.detectGutter;
+            boolean splitInMemory = plan.shouldSplit && (findGutter || plan.trim);
+            Rectangle[] pieces = plan.shouldSplit && !splitInMemory ? splitAreas(area, isJapaneseManga) : new Rectangle[]{area};
+
+            BufferedImage img = bytes != null ? ImageCodecs.read(bytes, pieces[0], rasterPool) : null;
+            // The image holding the pixels, given back to the pool once img and its sub-images are encoded
+            BufferedImage decoded = img;
+            if (img != null) {
+                if (cropLeft > 0 || cropRight > 0 || cropTop > 0 || cropBottom > 0) {
+                    if (!cropped) {
+                        logMessage("Warning: crop values exceed image dimensions, skipping crop");
+                    }
+                    modified = true;
+
+                    // Log only the first few cropped images to avoid flooding the log
+                    if (i < 3) {
+                        logMessage("Cropped image: " + imagePath.getFileName());
+                    } else if (i == 3) {
+                        logMessage("Cropping remaining images...");
+                    }
+                }
+
+                if (plan.trim) {
+                    Rectangle content = BorderTrimmer.findContent(img);
+                    if (content != null) {
+                        img = img.getSubimage(content.x, content.y, content.width, content.height);
+                        plan.trimmed = true;
+                        modified = true;
+                        logTrim(imagePath, i);
+                    }
+                }
+
+                if (plan.autoDetected) {
+                    logMessage("Auto-detected double page for: " + imagePath.getFileName());
+                }
+
+                // Rotate in memory if requested and not splitting
+                if (plan.rotate) {
+                    BufferedImage rotated = RasterKernels.rotateClockwise(img, rasterPool);
+                    rasterPool.release(decoded);
+                    img = rotated;
+                    decoded = rotated;
+                    modified = true;
+                    logMessage("Rotated wide image: " + imagePath.getFileName());
+                }
+
+                if (plan.isExceptionImage && (splitMode == 0 || splitMode == 2)) {
+                    logMessage("Skipping split for exception image: " + imagePath.getFileName());
+                }
+
+                if (plan.shouldSplit) {
+                    logMessage("Split image (" + (isJapaneseManga ? "right to left" : "left to right") + "): " + imagePath.getFileName());
+                    String baseName = imagePath.getFileName().toString();
+                    baseName = baseName.substring(0, baseName.lastIndexOf('.'));
+                    String ext = imagePath.toString().substring(imagePath.toString().lastIndexOf('.') + 1);
+
+                    if (splitInMemory) {
+                        int cut = img.getWidth() / 2;
+                        if (findGutter) {
+                            cut = GutterFinder.findCut(img);
+                            logGutter(imagePath, cut, img.getWidth());
+                        }
+                        BufferedImage leftHalf = img.getSubimage(0, 0, cut, img.getHeight());
+                        BufferedImage rightHalf = img.getSubimage(cut, 0, img.getWidth() - cut, img.getHeight());
+                        pageFiles.add(encodePage(isJapaneseManga ? rightHalf : leftHalf, ext, baseName + "_1." + ext, imagePath, plan, options));
+                        pageFiles.add(encodePage(isJapaneseManga ? leftHalf : rightHalf, ext, baseName + "_2." + ext, imagePath, plan, options));
+                        rasterPool.release(decoded);
+                        return pageFiles;
+                    }
+                    pageFiles.add(encodePage(img, ext, baseName + "_1." + ext, imagePath, plan, options));
+                    // The first half is encoded, its pixels can be reused for the second half
+                    rasterPool.release(img);
+                    img = null;
+                    BufferedImage secondHalf = ImageCodecs.read(bytes, pieces[1], rasterPool);
+                    if (secondHalf == null) {
+                        throw new IOException("Failed to decode the second half of the page");
+                    }
+                    pageFiles.add(encodePage(secondHalf, ext, baseName + "_2." + ext, imagePath, plan, options));
+                    rasterPool.release(secondHalf);
+                } else if (modified || plan.downscale || options.einkOutput) {
+                    String ext = imagePath.toString().substring(imagePath.toString().lastIndexOf('.') + 1);
+                    pageFiles.add(encodePage(img, ext, imagePath.getFileName().toString(), imagePath, plan, options));
+                    rasterPool.release(decoded);
+                } else {
+                    rasterPool.release(decoded);
+                    pageFiles.add(originalPage(imagePath));
+                }
+            } else {
+                pageFiles.add(originalPage(imagePath));
+            }
+        } catch (IOException e) {
+            logMessage("Error processing image: " + imagePath + " - " + e.getMessage());
+            pageFiles.clear();
+            pageFiles.add(originalPage(imagePath));
+        } catch (OutOfMemoryError e) {
+            // A page over the memory budget runs alone, so only its own pixels are lost here
+            if (!plan.lowMemory) {
+                throw e;
+            }
+            logMessage("Warning: not enough memory to process " + imagePath.getFileName() + ", keeping it as is");
+            pageFiles.clear();
+            pageFiles.add(originalPage(imagePath));
+        }
+        return pageFiles;
+    }
+
+    /**
+     * Cuts a long vertical strip into pages at blank rows near the target page height.
+     * The strip is decoded from top to bottom into a band of a few pages, and each page is
+     * encoded and handed to the writer as soon as its cut is known; the rows below the last
+     * cut then move to the top of the band and the next rows are decoded after them. The
+     * pixels held in memory never exceed one band, whatever the strip length. If decoding
+     * fails after some pages were emitted, the caller keeps the whole strip after them.
+     *
+     * @return No pages once they were all emitted, or the strip itself if it cannot be encoded
+     */
+    private static List<OutputPage> sliceStrip(Path imagePath, int i, byte[] bytes, PagePlan plan,
+                                               int cropLeft, int cropRight, int cropTop, int cropBottom,
+                                               ProcessingOptions options, PagePipeline.Emitter<PageResult> emitter)
+            throws IOException, InterruptedException {
+        Rectangle area = cropArea(plan.width, plan.height, cropLeft, cropRight, cropTop, cropBottom);
+        if (area == null) {
+            area = new Rectangle(0, 0, plan.width, plan.height);
+        }
+        int targetHeight = options.stripPageHeight;
+        int maxPageHeight = StripSlicer.maxPageHeight(targetHeight);
+        int bandHeight = StripSlicer.bandHeight(area.width, targetHeight);
+        String fileName = imagePath.getFileName().toString();
+        String baseName = fileName.substring(0, fileName.lastIndexOf('.'));
+        String ext = fileName.substring(fileName.lastIndexOf('.') + 1);
+
+        List<OutputPage> pageFiles = new ArrayList<>();
+        int pages = 0;
+        try (StripReader reader = new StripReader(bytes, area)) {
+            BufferedImage band = reader.createBand(Math.min(area.height, bandHeight), rasterPool);
+            if (band == null) {
+                pageFiles.add(originalPage(imagePath));
+                return pageFiles;
+            }
+            try {
+                // Row of the strip at the top of the band, and rows of the band decoded but not cut yet
+                int top = area.y;
+                int filled = 0;
+                int bottom = area.y + area.height;
+                while (top < bottom) {
+                    int rows = Math.min(band.getHeight(), bottom - top) - filled;
+                    reader.readRows(band, filled, rows);
+                    filled += rows;
+
+                    // Cut pages while the band holds the largest possible page, or the end of the strip
+                    int cut = 0;
+                    while (cut < filled && (top + filled >= bottom || filled - cut >= maxPageHeight)) {
+                        int remaining = bottom - top - cut;
+                        BufferedImage rest = band.getSubimage(0, cut, area.width, Math.min(remaining, maxPageHeight));
+                        int pageHeight = remaining <= maxPageHeight ? remaining : StripSlicer.findCut(rest, targetHeight);
+                        BufferedImage page = pageHeight < rest.getHeight() ? rest.getSubimage(0, 0, area.width, pageHeight) : rest;
+                        String name = String.format("%s_%03d.%s", baseName, ++pages, ext);
+                        OutputPage output = encodePage(page, ext, name, imagePath, plan, options);
+                        if (output.source != null) {
+                            if (pages > 1) {
+                                throw new IOException("Failed to encode " + name);
+                            }
+                            // No encoder for this image, the strip is kept whole
+                            pageFiles.add(output);
+                            return pageFiles;
+                        }
+                        emitter.emit(new PageResult(Collections.singletonList(output), Collections.<String>emptyList()));
+                        cut += pageHeight;
+                    }
+
+                    // Rows are copied from the top, so moving them up within the same pixels is safe
+                    if (cut > 0 && cut < filled) {
+                        WritableRaster raster = band.getRaster();
+                        raster.setDataElements(0, 0, raster.createChild(0, cut, area.width, filled - cut, 0, 0, null));
+                    }
+                    top += cut;
+                    filled -= cut;
+                }
+            } finally {
+                rasterPool.release(band);
+            }
+        }
+
+        if (plan.crop) {
+            if (i < 3) {
+                logMessage("Cropped image: " + imagePath.getFileName());
+            } else if (i == 3) {
+                logMessage("Cropping remaining images...");
+            }
+        }
+        logMessage("Sliced strip into " + pages + " pages: " + imagePath.getFileName());
+        return pageFiles;
+    }
+
+    /**
+     * Applies the plan of a JPEG page on its DCT coefficients, logging like the pixel path.
+     *
+     * @return The output images of this page, or null if a cut is not MCU-aligned or the
+     *         JPEG is not supported, in which case the page must go through the pixel path
+     */
+    private static List<OutputPage> transformJpegLosslessly(Path imagePath, int i, byte[] bytes, PagePlan plan,
+                                                            int splitMode, boolean isJapaneseManga,
+                                                            int cropLeft, int cropRight, int cropTop, int cropBottom,
+                                                            ProcessingOptions options) {
+        LosslessJpeg jpeg = LosslessJpeg.parse(bytes);
+        if (jpeg == null) {
+            return null;
+        }
+        int x = 0;
+        int y = 0;
+        int width = jpeg.getWidth();
+        int height = jpeg.getHeight();
+        if (plan.crop) {
+            x = cropLeft;
+            y = cropTop;
+            width = Math.max(1, width - cropLeft - cropRight);
+            height = Math.max(1, height - cropTop - cropBottom);
+        }
+        Rectangle content = plan.trim ? BorderTrimmer.findContent(jpeg, new Rectangle(x, y, width, height)) : null;
+        if (content != null) {
+            if (plan.rotate) {
+                // The bottom edge of a rotated page becomes its left edge, so it must fall on an MCU boundary too
+                int mcuHeight = jpeg.getMcuHeight();
+                content.height = Math.min(y + height - content.y, (content.height + mcuHeight - 1) / mcuHeight * mcuHeight);
+            }
+            x = content.x;
+            y = content.y;
+            width = content.width;
+            height = content.height;
+        }
+
+        String fileName = imagePath.getFileName().toString();
+        List<OutputPage> pageFiles = new ArrayList<>();
+        int cut = width / 2;
+        if (!plan.crop && content == null && !plan.shouldSplit && !plan.rotate) {
+            // Decoded only to look for borders, and there are none
+            pageFiles.add(originalPage(imagePath));
+        } else if (plan.shouldSplit) {
+            // The gutter must contain an MCU boundary, otherwise the pixel path cuts it precisely
+            cut = options.detectGutter ? GutterFinder.findCut(jpeg, x, y, width, height) : width / 2;
+            if (cut < 0) {
+                return null;
+            }
+            byte[] leftHalf = jpeg.transform(x, y, cut, height, false, options.stripMetadata);
+            byte[] rightHalf = leftHalf != null ? jpeg.transform(x + cut, y, width - cut, height, false, options.stripMetadata) : null;
+            if (rightHalf == null) {
+                return null;
+            }
+            String baseName = fileName.substring(0, fileName.lastIndexOf('.'));
+            String ext = fileName.substring(fileName.lastIndexOf('.') + 1);
+            pageFiles.add(new OutputPage(baseName + "_1." + ext, isJapaneseManga ? rightHalf : leftHalf, null));
+            pageFiles.add(new OutputPage(baseName + "_2." + ext, isJapaneseManga ? leftHalf : rightHalf, null));
+        } else {
+            byte[] data = jpeg.transform(x, y, width, height, plan.rotate, options.stripMetadata);
+            if (data == null) {
+                return null;
+            }
+            pageFiles.add(new OutputPage(fileName, data, null));
+        }
+
+        // Same log lines as the pixel path
+        if (plan.crop) {
+            if (i < 3) {
+                logMessage("Cropped image: " + imagePath.getFileName());
+            } else if (i == 3) {
+                logMessage("Cropping remaining images...");
+            }
+        }
+        if (content != null) {
+            plan.trimmed = true;
+            logTrim(imagePath, i);
+        }
+        if (plan.autoDetected) {
+            logMessage("Auto-detected double page for: " + imagePath.getFileName());
+        }
+        if (plan.rotate) {
+            logMessage("Rotated wide image: " + imagePath.getFileName());
+        }
+        if (plan.isExceptionImage && (splitMode == 0 || splitMode == 2)) {
+            logMessage("Skipping split for exception image: " + imagePath.getFileName());
+        }
+        if (plan.shouldSplit) {
+            logMessage("Split image (" + (isJapaneseManga ? "right to left" : "left to right") + "): " + imagePath.getFileName());
+            if (options.detectGutter) {
+                logGutter(imagePath, cut, width);
+            }
+        }
+        return pageFiles;
+    }
+
+    /**
+     * Logs the first trimmed pages of a volume, without flooding the log.
+     */
+    private static void logTrim(Path imagePath, int i) {
+        if (i < 3) {
+            logMessage("Trimmed borders of image: " + imagePath.getFileName());
+        } else if (i == 3) {
+            logMessage("Trimming borders of remaining images...");
+        }
+    }
+
+    /**
+     * Logs where a page was split when its gutter is not in the middle.
+     */
+    private static void logGutter(Path imagePath, int cut, int width) {
+        if (cut != width / 2) {
+            logMessage("Split at the gutter, " + Math.abs(cut - width / 2) + " px "
+                       + (cut < width / 2 ? "left" : "right") + " of the middle: " + imagePath.getFileName());
+        }
+    }
+
+    private static OutputPage originalPage(Path imagePath) {
+        return new OutputPage(imagePath.getFileName().toString(), null, imagePath);
+    }
+
+    /**
+     * Encodes an image in memory, to be stored under the given name by the write-behind stage.
+     * The image is first downscaled to the device profile of the options if it is larger.
+     * For e-ink output, it is dithered to 16 gray levels and written as a PNG whatever the
+     * format; otherwise images holding only shades of gray are encoded with a single channel
+     * if the options ask for it. If no encoder is available, the original image is kept instead.
+     */
+    private static OutputPage encodePage(BufferedImage img, String format, String name, Path imagePath,
+                                         PagePlan plan, ProcessingOptions options) throws IOException {
+        BufferedImage scaled = null;
+        DeviceProfile profile = DeviceProfile.get(options.deviceProfile);
+        Dimension size = profile != null ? profile.fit(img.getWidth(), img.getHeight()) : null;
+        if (size != null) {
+            scaled = Resampler.downscale(img, size.width, size.height, rasterPool);
+            img = scaled;
+            plan.downscaled = true;
+        }
+        BufferedImage gray = null;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            if (options.einkOutput) {
+                String pngName = name.substring(0, name.lastIndexOf('.') + 1) + "png";
+                if (!ImageCodecs.write(EinkQuantizer.quantize(img), "png", out, options)) {
+                    logMessage("Warning: failed to write image: " + pngName);
+                    return originalPage(imagePath);
+                }
+                return new OutputPage(pngName, out.toByteArray(), null);
+            }
+            if (options.encodeGrayscale && GrayscaleDetector.isGrayscale(img)) {
+                gray = RasterKernels.toGray(img, rasterPool);
+                if (ImageCodecs.write(gray, format, out, options)) {
+                    plan.grayscale = true;
+                    return new OutputPage(name, out.toByteArray(), null);
+                }
+                out.reset();
+            }
+            if (!ImageCodecs.write(img, format, out, options)) {
+                logMessage("Warning: failed to write image: " + name);
+                return originalPage(imagePath);
+            }
+        } finally {
+            rasterPool.release(gray);
+            rasterPool.release(scaled);
+        }
+        return new OutputPage(name, out.toByteArray(), null);
+    }
+
+    /**
+     * Runs a page task while collecting its log lines, so they can be replayed in page order.
+     */
+    private static PageResult captureLogs(Callable<List<OutputPage>> task) throws Exception {
+        List<String> previous = LOG_BUFFER.get();
+        List<String> log = new ArrayList<>();
+        LOG_BUFFER.set(log);
+        try {
+            return new PageResult(task.call(), log);
+        } finally {
+            if (previous != null) {
+                LOG_BUFFER.set(previous);
+            } else {
+                LOG_BUFFER.remove();
+            }
+        }
+    }
+
+    /**
+     * Runs the tasks on the pool (or in the current thread if there is none) and returns
+     * their results in task order.
+     *
+     * @return The results, or null if processing was cancelled
+     * @throws IOException If a task failed, so the volume is skipped
+     */
+    private static <T> List<T> runTasks(List<Callable<T>> tasks, ExecutorService pool) throws IOException {
+        List<T> results = new ArrayList<>();
+        try {
+            if (pool == null) {
+                for (Callable<T> task : tasks) {
+                    if (Thread.currentThread().isInterrupted() || (ui != null && ui.isCancelled())) {
+                        return null;
+                    }
+                    results.add(task.call());
+                }
+            } else {
+                List<Future<T>> futures = new ArrayList<>();
+                for (Callable<T> task : tasks) {
+                    futures.add(pool.submit(task));
+                }
+                try {
+                    for (Future<T> future : futures) {
+                        results.add(future.get());
+                    }
+                } finally {
+                    for (Future<T> future : futures) {
+                        future.cancel(true);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof InterruptedException) {
+                // A worker interrupted while waiting, by cancellation
+                return null;
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException("Page task failed: " + cause, cause);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Page task failed: " + e, e);
+        }
+        if (Thread.currentThread().isInterrupted() || (ui != null && ui.isCancelled())) {
+            return null;
+        }
+        return results;
+    }
+
+    /**
+     * Divides an area into its two halves, in reading order.
+     */
+    private static Rectangle[] splitAreas(Rectangle area, boolean isJapaneseManga) {
+        Rectangle leftHalf = new Rectangle(area.x, area.y, area.width / 2, area.height);
+        Rectangle rightHalf = new Rectangle(area.x + area.width / 2, area.y, area.width - area.width / 2, area.height);
+        return isJapaneseManga ? new Rectangle[]{rightHalf, leftHalf} : new Rectangle[]{leftHalf, rightHalf};
+    }
+
+    // Renamed to be more specific
+    private static void createZipArchive(List<Path> imageFiles, File outputFile, ProcessingOptions options) throws IOException {
+        System.out.println("Creating ZIP/CBZ: " + outputFile);
+
+        ZipCompressionPolicy policy = new ZipCompressionPolicy(options);
+        try (ZipArchiveWriter zip = new ZipArchiveWriter(new FileOutputStream(outputFile), policy)) {
+            // Nested pages are flattened: two of the same name fail the volume (duplicate entry)
+            for (Path file : imageFiles) {
+                zip.putEntry(file.getFileName().toString(), Files.readAllBytes(file));
+            }
+        } catch (IOException e) {
+            // Closing the writer completed the archive with the entries written so far, do not leave it behind
+            Files.deleteIfExists(outputFile.toPath());
+            throw e;
+        }
+        logMessage("Archive entries: " + policy.summary());
     }
     
     // New method for creating RAR archives
-    private static void createRarArchive(List<Path> imageFiles, File outputFile) throws IOException {
+    private static void createRarArchive(List<Path> imageFiles, File outputFile, ProcessingOptions options) throws IOException {
         System.out.println("Creating RAR/CBR: " + outputFile);
 
         // Since Java doesn't have built-in RAR creation, try to use external tools
@@ -674,7 +2058,7 @@ public class MangaPagesSplitter {
             
             // Create temporary zip file
             File tempZip = new File(outputFile.getParentFile(), outputFile.getName() + ".zip.tmp");
-            createZipArchive(imageFiles, tempZip);
+            createZipArchive(imageFiles, tempZip, options);
             
             // Rename to requested extension
             if (tempZip.exists()) {
@@ -747,6 +2131,18 @@ public class MangaPagesSplitter {
         }
     }
 
+    private static long folderSize(Path folder) {
+        try (Stream<Path> walk = Files.walk(folder)) {
+            return walk.filter(Files::isRegularFile).mapToLong(path -> path.toFile().length()).sum();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static String formatSize(long bytes) {
+        return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+
     private static boolean isImageFile(String filePath) {
         String lowerCase = filePath.toLowerCase();
         for (String ext : IMAGE_EXTENSIONS) {
@@ -764,6 +2160,16 @@ public class MangaPagesSplitter {
         return last;
     }
 
+    private static boolean isJpegFile(String filePath) {
+        String lowerCase = filePath.toLowerCase();
+        return lowerCase.endsWith(".jpg") || lowerCase.endsWith(".jpeg");
+    }
+
+    private static boolean isZipFile(String filePath) {
+        String lowerCase = filePath.toLowerCase();
+        return lowerCase.endsWith(".zip") || lowerCase.endsWith(".cbz");
+    }
+
     private static boolean isArchiveFile(String filePath) {
         String lowerCase = filePath.toLowerCase();
         for (String ext : ARCHIVE_EXTENSIONS) {
@@ -845,30 +2251,24 @@ public class MangaPagesSplitter {
     }
 
     /**
-     * Crops an image by removing specified number of pixels from each side.
+     * Computes the area left after removing the specified number of pixels from each side.
      *
-     * @param img The original image
+     * @param width The image width
+     * @param height The image height
      * @param left Pixels to crop from left
      * @param right Pixels to crop from right
      * @param top Pixels to crop from top
      * @param bottom Pixels to crop from bottom
-     * @return The cropped image
+     * @return The area to keep, or null if the crop values exceed the image dimensions
      */
-    private static BufferedImage cropImage(BufferedImage img, int left, int right, int top, int bottom) {
-        int origWidth = img.getWidth();
-        int origHeight = img.getHeight();
-
-        // Validate crop values don't exceed image dimensions
-        if (left >= origWidth || top >= origHeight || left + right >= origWidth || top + bottom >= origHeight) {
-            logMessage("Warning: crop values exceed image dimensions, skipping crop");
-            return img;
+    private static Rectangle cropArea(int width, int height, int left, int right, int top, int bottom) {
+        if (!isCropApplicable(width, height, left, right, top, bottom)) {
+            return null;
         }
+        return new Rectangle(left, top, Math.max(1, width - left - right), Math.max(1, height - top - bottom));
+    }
 
-        // Calculate new dimensions
-        int newWidth = Math.max(1, origWidth - left - right);
-        int newHeight = Math.max(1, origHeight - top - bottom);
-
-        // Create cropped image
-        return img.getSubimage(left, top, newWidth, newHeight);
+    private static boolean isCropApplicable(int width, int height, int left, int right, int top, int bottom) {
+        return left < width && top < height && left + right < width && top + bottom < height;
     }
-}
\ No newline at end of file
+}
@@ -18,7 +18,7 @@ public class MangaPagesSplitterUI extends JFrame {
     // Main configuration objects
     private JTextField rootFolderField;
     private JButton browseButton;
-    private JRadioButton autoDetectRadio, keepOriginalRadio, splitAllRadio;
+    private JRadioButton autoDetectRadio, keepOriginalRadio, splitAllRadio, sliceStripsRadio;
     private JRadioButton japaneseRadio, westernRadio;
     private JRadioButton keepFilesRadio, deleteFilesRadio;
     private JCheckBox skipImagesCheckbox;
@@ -44,9 +44,13 @@ public class MangaPagesSplitterUI extends JFrame {
     
     private SwingWorker<Void, String> currentWorker = null;
     private JCheckBoxMenuItem darkThemeMenuItem;
+    private JMenuItem settingsMenuItem;
+
+    // Advanced settings, persisted in the preferences
+    private ProcessingOptions options = ProcessingOptions.load(Preferences.userRoot().node("MangaPagesSplitter"));
 
     // Configuration values
-    private int splitMode = 0; // 0=auto, 1=keep original, 2=split all
+    private int splitMode = 0; // 0=auto, 1=keep original, 2=split all, 3=slice long strips
     private boolean isJapaneseManga = true;
     private boolean deleteOriginals = false;
     private int skipImagesFromStart = 0;
@@ -60,8 +64,8 @@ public class MangaPagesSplitterUI extends JFrame {
     
     public MangaPagesSplitterUI() {
         setTitle("Manga Pages Splitter");
-        setSize(900, 975);
-        setMinimumSize(new Dimension(800, 975));
+        setSize(900, 997);
+        setMinimumSize(new Dimension(800, 997));
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setLocationRelativeTo(null);
         
@@ -99,9 +103,163 @@ public class MangaPagesSplitterUI extends JFrame {
         });
         viewMenu.add(darkThemeMenuItem);
         menuBar.add(viewMenu);
+
+        JMenu settingsMenu = new JMenu("Settings");
+        settingsMenuItem = new JMenuItem("Advanced Settings...");
+        settingsMenuItem.addActionListener(e -> showAdvancedSettingsDialog());
+        settingsMenu.add(settingsMenuItem);
+        menuBar.add(settingsMenu);
         setJMenuBar(menuBar);
     }
 
+    /**
+     * Shows the advanced settings dialog and stores the new values if the user confirms.
+     */
+    private void showAdvancedSettingsDialog() {
+        JPanel panel = new JPanel(new GridBagLayout());
+        GridBagConstraints gbc = new GridBagConstraints();
+        gbc.anchor = GridBagConstraints.WEST;
+        gbc.insets = new Insets(3, 5, 3, 5);
+
+        JSpinner volumeThreadsSpinner = new JSpinner(new SpinnerNumberModel(
+            options.volumeThreads, 1, ProcessingOptions.maxThreads(), 1));
+        addSettingsRow(panel, gbc, "Volumes processed in parallel:", volumeThreadsSpinner);
+        JSpinner pageThreadsSpinner = new JSpinner(new SpinnerNumberModel(
+            options.pageThreads, 1, ProcessingOptions.maxThreads(), 1));
+        addSettingsRow(panel, gbc, "Page transform threads:", pageThreadsSpinner);
+        JSpinner readAheadSpinner = new JSpinner(new SpinnerNumberModel(
+            options.readAheadDepth, 1, ProcessingOptions.MAX_QUEUE_DEPTH, 1));
+        addSettingsRow(panel, gbc, "Read-ahead queue depth (pages):", readAheadSpinner);
+        JSpinner writeBehindSpinner = new JSpinner(new SpinnerNumberModel(
+            options.writeBehindDepth, 1, ProcessingOptions.MAX_QUEUE_DEPTH, 1));
+        addSettingsRow(panel, gbc, "Write-behind queue depth (pages):", writeBehindSpinner);
+        JSpinner memoryBudgetSpinner = new JSpinner(new SpinnerNumberModel(
+            options.memoryBudgetMb, 0, ProcessingOptions.maxMemoryMb(), 64));
+        addSettingsRow(panel, gbc, "Decoded pages memory budget (MB, 0 = auto):", memoryBudgetSpinner);
+        JSpinner maxMegapixelsSpinner = new JSpinner(new SpinnerNumberModel(
+            options.maxPageMegapixels, 0, Integer.MAX_VALUE, 10));
+        addSettingsRow(panel, gbc, "Largest page decoded (megapixels, 0 = no limit):", maxMegapixelsSpinner);
+        JSpinner maxRatioSpinner = new JSpinner(new SpinnerNumberModel(
+            options.maxDecodedRatio, 0, Integer.MAX_VALUE, 1000));
+        addSettingsRow(panel, gbc, "Largest decoded/file size ratio (0 = no limit):", maxRatioSpinner);
+        JCheckBox streamArchivesCheckbox = new JCheckBox(
+            "Stream ZIP/CBZ into ZIP/CBZ without extracting (not with flatten)", options.streamArchives);
+        addSettingsRow(panel, gbc, streamArchivesCheckbox);
+        JSpinner archiveWindowSpinner = new JSpinner(new SpinnerNumberModel(
+            options.archiveWindow, 0, ProcessingOptions.MAX_ARCHIVE_WINDOW, 1));
+        addSettingsRow(panel, gbc, "Archives extracted at once (0 = all first):", archiveWindowSpinner);
+        // Items in the order of the ProcessingOptions.ZIP_* constants
+        JComboBox<String> zipCompressionCombo = new JComboBox<>(new String[]{
+            "Deflate every page", "Store JPEG/PNG/GIF/WebP, deflate others", "Sample one page per format and volume"});
+        zipCompressionCombo.setSelectedIndex(options.zipCompression);
+        addSettingsRow(panel, gbc, "ZIP/CBZ compression:", zipCompressionCombo);
+        JSpinner deflateLevelSpinner = new JSpinner(new SpinnerNumberModel(options.deflateLevel, 0, 9, 1));
+        addSettingsRow(panel, gbc, "Deflate level (0 = store everything):", deflateLevelSpinner);
+        JCheckBox losslessJpegCheckbox = new JCheckBox(
+            "Lossless JPEG crop/split/rotate when cuts fall on 8/16 px blocks", options.losslessJpeg);
+        addSettingsRow(panel, gbc, losslessJpegCheckbox);
+        JSpinner jpegQualitySpinner = new JSpinner(new SpinnerNumberModel(options.jpegQuality, 1, 100, 1));
+        addSettingsRow(panel, gbc, "JPEG quality of re-encoded pages:", jpegQualitySpinner);
+        JComboBox<String> jpegSubsamplingCombo = new JComboBox<>(new String[]{
+            "4:2:0 (smallest)", "4:2:2", "4:4:4 (sharpest colors)"});
+        jpegSubsamplingCombo.setSelectedIndex(options.jpegSubsampling);
+        addSettingsRow(panel, gbc, "JPEG chroma subsampling:", jpegSubsamplingCombo);
+        JCheckBox jpegProgressiveCheckbox = new JCheckBox("Progressive JPEG", options.jpegProgressive);
+        addSettingsRow(panel, gbc, jpegProgressiveCheckbox);
+        JSpinner pngCompressionSpinner = new JSpinner(new SpinnerNumberModel(options.pngCompressionLevel, -1, 9, 1));
+        addSettingsRow(panel, gbc, "PNG compression level (-1 = default):", pngCompressionSpinner);
+        JCheckBox encodeGrayscaleCheckbox = new JCheckBox(
+            "Encode grayscale pages with a single channel (smaller, faster)", options.encodeGrayscale);
+        addSettingsRow(panel, gbc, encodeGrayscaleCheckbox);
+        JCheckBox einkOutputCheckbox = new JCheckBox(
+            "E-ink output: every page dithered to 16 grays, as 4-bit PNG", options.einkOutput);
+        addSettingsRow(panel, gbc, einkOutputCheckbox);
+        JComboBox<String> deviceProfileCombo = new JComboBox<>(DeviceProfile.names());
+        deviceProfileCombo.setSelectedIndex(options.deviceProfile);
+        addSettingsRow(panel, gbc, "Downscale pages larger than the screen of:", deviceProfileCombo);
+        JCheckBox stripMetadataCheckbox = new JCheckBox(
+            "Strip EXIF, thumbnails and comments from lossless JPEG pages", options.stripMetadata);
+        addSettingsRow(panel, gbc, stripMetadataCheckbox);
+        JCheckBox detectGutterCheckbox = new JCheckBox(
+            "Split double pages at the detected gutter instead of the middle", options.detectGutter);
+        addSettingsRow(panel, gbc, detectGutterCheckbox);
+        JCheckBox autoTrimCheckbox = new JCheckBox(
+            "Trim uniform borders of every page (after the crop values)", options.autoTrim);
+        addSettingsRow(panel, gbc, autoTrimCheckbox);
+        JCheckBox dropBlankPagesCheckbox = new JCheckBox(
+            "Drop blank pages (plain white, black or any single color)", options.dropBlankPages);
+        addSettingsRow(panel, gbc, dropBlankPagesCheckbox);
+        JCheckBox dropDuplicatePagesCheckbox = new JCheckBox(
+            "Drop duplicate pages within a volume (the first copy is kept)", options.dropDuplicatePages);
+        addSettingsRow(panel, gbc, dropDuplicatePagesCheckbox);
+        JSpinner stripPageHeightSpinner = new JSpinner(new SpinnerNumberModel(options.stripPageHeight,
+            ProcessingOptions.MIN_STRIP_PAGE_HEIGHT, ProcessingOptions.MAX_STRIP_PAGE_HEIGHT, 100));
+        addSettingsRow(panel, gbc, "Target page height for sliced strips (px):", stripPageHeightSpinner);
+
+        int result = JOptionPane.showConfirmDialog(this, panel, "Advanced Settings",
+            JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+        if (result == JOptionPane.OK_OPTION) {
+            options.volumeThreads = (Integer) volumeThreadsSpinner.getValue();
+            options.pageThreads = (Integer) pageThreadsSpinner.getValue();
+            options.readAheadDepth = (Integer) readAheadSpinner.getValue();
+            options.writeBehindDepth = (Integer) writeBehindSpinner.getValue();
+            options.streamArchives = streamArchivesCheckbox.isSelected();
+            options.memoryBudgetMb = (Integer) memoryBudgetSpinner.getValue();
+            options.maxPageMegapixels = (Integer) maxMegapixelsSpinner.getValue();
+            options.maxDecodedRatio = (Integer) maxRatioSpinner.getValue();
+            options.archiveWindow = (Integer) archiveWindowSpinner.getValue();
+            options.zipCompression = zipCompressionCombo.getSelectedIndex();
+            options.deflateLevel = (Integer) deflateLevelSpinner.getValue();
+            options.losslessJpeg = losslessJpegCheckbox.isSelected();
+            options.jpegQuality = (Integer) jpegQualitySpinner.getValue();
+            options.jpegSubsampling = jpegSubsamplingCombo.getSelectedIndex();
+            options.jpegProgressive = jpegProgressiveCheckbox.isSelected();
+            options.pngCompressionLevel = (Integer) pngCompressionSpinner.getValue();
+            options.encodeGrayscale = encodeGrayscaleCheckbox.isSelected();
+            options.einkOutput = einkOutputCheckbox.isSelected();
+            options.deviceProfile = deviceProfileCombo.getSelectedIndex();
+            options.stripMetadata = stripMetadataCheckbox.isSelected();
+            options.detectGutter = detectGutterCheckbox.isSelected();
+            options.autoTrim = autoTrimCheckbox.isSelected();
+            options.dropBlankPages = dropBlankPagesCheckbox.isSelected();
+            options.dropDuplicatePages = dropDuplicatePagesCheckbox.isSelected();
+            options.stripPageHeight = (Integer) stripPageHeightSpinner.getValue();
+            options.save(Preferences.userRoot().node("MangaPagesSplitter"));
+            updatePreview();
+        }
+    }
+
+    /**
+     * Adds a labeled row to a settings form using GridBagLayout.
+     *
+     * @param panel The form panel
+     * @param gbc The shared constraints of the form
+     * @param label The label text shown before the component
+     * @param component The editor component of the row
+     */
+    private void addSettingsRow(JPanel panel, GridBagConstraints gbc, String label, JComponent component) {
+        gbc.gridx = 0;
+        gbc.gridy++;
+        panel.add(new JLabel(label), gbc);
+        gbc.gridx = 1;
+        panel.add(component, gbc);
+    }
+
+    /**
+     * Adds a component spanning the whole row (e.g. a checkbox) to a settings form.
+     *
+     * @param panel The form panel
+     * @param gbc The shared constraints of the form
+     * @param component The component of the row
+     */
+    private void addSettingsRow(JPanel panel, GridBagConstraints gbc, JComponent component) {
+        gbc.gridx = 0;
+        gbc.gridy++;
+        gbc.gridwidth = 2;
+        panel.add(component, gbc);
+        gbc.gridwidth = 1;
+    }
+
     private boolean isDarkTheme() {
         return UIManager.getLookAndFeel() instanceof FlatDarkLaf;
     }
@@ -142,9 +300,11 @@ public class MangaPagesSplitterUI extends JFrame {
         autoDetectRadio = new JRadioButton("Only split wide images (smart)", true);
         keepOriginalRadio = new JRadioButton("No split at all");
         splitAllRadio = new JRadioButton("Split all images in half");
+        sliceStripsRadio = new JRadioButton("Slice long vertical strips (webtoon)");
         splitGroup.add(autoDetectRadio);
         splitGroup.add(keepOriginalRadio);
         splitGroup.add(splitAllRadio);
+        splitGroup.add(sliceStripsRadio);
         
         // Reading direction options
         ButtonGroup directionGroup = new ButtonGroup();
@@ -275,17 +435,19 @@ public class MangaPagesSplitterUI extends JFrame {
         westPanel.add(Box.createRigidArea(new Dimension(0, 8)));
         
         // Panel for splitting options
-        JPanel splitPanel = createSectionPanel("Image Splitting Options", 280, 90);
+        JPanel splitPanel = createSectionPanel("Image Splitting Options", 280, 112);
         splitPanel.setLayout(new BoxLayout(splitPanel, BoxLayout.Y_AXIS));
         
         // Add components to splitting panel
         autoDetectRadio.setAlignmentX(LEFT_ALIGNMENT);
         keepOriginalRadio.setAlignmentX(LEFT_ALIGNMENT);
         splitAllRadio.setAlignmentX(LEFT_ALIGNMENT);
+        sliceStripsRadio.setAlignmentX(LEFT_ALIGNMENT);
         
         splitPanel.add(autoDetectRadio);
         splitPanel.add(keepOriginalRadio);
         splitPanel.add(splitAllRadio);
+        splitPanel.add(sliceStripsRadio);
         westPanel.add(splitPanel);
         westPanel.add(Box.createRigidArea(new Dimension(0, 8)));
         
@@ -510,6 +672,11 @@ public class MangaPagesSplitterUI extends JFrame {
                 setExceptionsPanelEnabled(true);
                 // Only enable rotation if we have exceptions
                 setRotationPanelEnabled(skipImagesCheckbox.isSelected());
+            } else if (sliceStripsRadio.isSelected()) {
+                splitMode = 3;
+                setDirectionPanelEnabled(false);
+                setExceptionsPanelEnabled(false);
+                setRotationPanelEnabled(true);
             }
             updatePreview();
         };
@@ -517,6 +684,7 @@ public class MangaPagesSplitterUI extends JFrame {
         autoDetectRadio.addActionListener(splitListener);
         keepOriginalRadio.addActionListener(splitListener);
         splitAllRadio.addActionListener(splitListener);
+        sliceStripsRadio.addActionListener(splitListener);
         
         // Reading direction changes
         japaneseRadio.addActionListener(e -> {
@@ -866,6 +1034,10 @@ public class MangaPagesSplitterUI extends JFrame {
             case 2:
                 text.append("Split all images in half\n");
                 break;
+            case 3:
+                text.append("Slice long vertical strips into pages of about ")
+                    .append(options.stripPageHeight).append(" px\n");
+                break;
         }
         
         // Reading direction (if applicable)
@@ -875,6 +1047,9 @@ public class MangaPagesSplitterUI extends JFrame {
                 "Japanese style (right to left)" : 
                 "Western style (left to right)");
             text.append("\n");
+            if (options.detectGutter) {
+                text.append("Split position: at the gutter detected near the middle\n");
+            }
         }
         
         // Exception images
@@ -898,6 +1073,24 @@ public class MangaPagesSplitterUI extends JFrame {
             text.append("Top=" + cropTop + "px, ");
             text.append("Bottom=" + cropBottom + "px\n");
         }
+        if (options.autoTrim) {
+            text.append("Border trimming: uniform borders of every page are trimmed\n");
+        }
+        if (options.dropBlankPages) {
+            text.append("Blank pages: dropped from the output\n");
+        }
+        if (options.dropDuplicatePages) {
+            text.append("Duplicate pages: only the first copy of each page is kept\n");
+        }
+        DeviceProfile profile = DeviceProfile.get(options.deviceProfile);
+        if (profile != null) {
+            text.append("Downscaling: pages larger than ").append(profile.name).append(" are downscaled to fit\n");
+        }
+        if (options.einkOutput) {
+            text.append("E-ink output: every page dithered to 16 gray levels and written as PNG\n");
+        } else if (options.encodeGrayscale) {
+            text.append("Grayscale pages: encoded with a single channel\n");
+        }
         
         // Output format
         text.append("Output format: ");
@@ -927,11 +1120,25 @@ public class MangaPagesSplitterUI extends JFrame {
         } else {
             text.append("Original files will be kept");
         }
-        text.append("\n\n");
+        text.append("\n");
+
+        // Parallel processing
+        if (options.volumeThreads > 1) {
+            text.append("Parallel processing: ").append(options.volumeThreads).append(" volumes at a time\n");
+        }
+        if (options.pageThreads > 1) {
+            text.append("Page transform threads: ").append(options.pageThreads).append("\n");
+        }
+        text.append("\n");
         
         // What will happen
         text.append("THE PROGRAM WILL:\n");
-        text.append("- Extract all archive files (CBZ, CBR, ZIP, RAR)\n");
+        if (isStreamingArchives()) {
+            text.append("- Stream CBZ/ZIP archives directly into the new archives (no extraction)\n");
+            text.append("- Extract the other archive files (CBR, RAR)\n");
+        } else {
+            text.append("- Extract all archive files (CBZ, CBR, ZIP, RAR)\n");
+        }
         if (flattenDirectories) {
             text.append("- Create one output file per nested manga sub-folder\n");
         }
@@ -946,6 +1153,8 @@ public class MangaPagesSplitterUI extends JFrame {
             text.append("- Analyze each image and split those that are wider than tall\n");
         } else if (splitMode == 2) {
             text.append("- Split all images in half\n");
+        } else if (splitMode == 3) {
+            text.append("- Cut images taller than a page at blank rows, one page at a time\n");
         }
         
         if ((splitMode == 0 || splitMode == 2) && skipImagesCheckbox.isSelected() && 
@@ -986,6 +1195,14 @@ public class MangaPagesSplitterUI extends JFrame {
         logArea.setText(text.toString());
     }
     
+    /**
+     * Tells whether ZIP/CBZ archives will be transcoded without extraction with the current settings.
+     */
+    private boolean isStreamingArchives() {
+        return options.streamArchives && !flattenDirectories
+            && (outputFormat.equals("cbz") || outputFormat.equals("zip"));
+    }
+
     private void startProcessing() {
         // Get current configuration
         if (skipImagesCheckbox.isSelected()) {
@@ -1036,6 +1253,12 @@ public class MangaPagesSplitterUI extends JFrame {
                     
                     publish("Output format: " + outputFormat);
                     publish("File handling: " + (deleteOriginals ? "Delete originals" : "Keep originals"));
+                    if (options.volumeThreads > 1) {
+                        publish("Parallel volumes: " + options.volumeThreads);
+                    }
+                    if (options.pageThreads > 1) {
+                        publish("Page transform threads: " + options.pageThreads);
+                    }
                     publish("------------------------------");
                     
                     // Call MangaPagesSplitter to do the actual processing
@@ -1045,7 +1268,7 @@ public class MangaPagesSplitterUI extends JFrame {
                         skipImagesFromStart, skipImagesFromEnd, rotateWideImages,
                         outputFormat, cropLeft, cropRight, cropTop, cropBottom,
                         flattenDirectories, useCustomTitle, customTitleField.getText().trim(),
-                        MangaPagesSplitterUI.this);
+                        options, MangaPagesSplitterUI.this);
                     
                 } catch (Exception e) {
                     publish("ERROR: " + e.getMessage());
@@ -1086,11 +1309,13 @@ public class MangaPagesSplitterUI extends JFrame {
         startButton.setEnabled(!processing);
         cancelButton.setEnabled(processing);
         browseButton.setEnabled(!processing);
+        settingsMenuItem.setEnabled(!processing);
         
         // Disable configuration while processing
         autoDetectRadio.setEnabled(!processing);
         keepOriginalRadio.setEnabled(!processing);
         splitAllRadio.setEnabled(!processing);
+        sliceStripsRadio.setEnabled(!processing);
         
         // Update entire panels based on current mode
         if (!processing) {
@@ -1108,6 +1333,10 @@ public class MangaPagesSplitterUI extends JFrame {
                 setExceptionsPanelEnabled(true);
                 // Only enable rotation if we have exceptions
                 setRotationPanelEnabled(skipImagesCheckbox.isSelected());
+            } else if (sliceStripsRadio.isSelected()) {
+                setDirectionPanelEnabled(false);
+                setExceptionsPanelEnabled(false);
+                setRotationPanelEnabled(true);
             }
         } else {
             // If processing, disable all panels
@@ -1283,6 +1512,7 @@ public class MangaPagesSplitterUI extends JFrame {
             case 0: return "Auto-detect";
             case 1: return "Keep original";
             case 2: return "Split all";
+            case 3: return "Slice long strips";
             default: return "Unknown";
         }
     }
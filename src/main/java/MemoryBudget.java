@@ -0,0 +1,87 @@
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Limits the decoded pixel data held by the pages being transformed at the same time.
+ * Pages are admitted in arrival order while their estimated size fits in the budget;
+ * a page larger than the whole budget waits until no other page is in flight and then
+ * runs alone, holding the entire budget.
+ */
+class MemoryBudget {
+
+    private final long capacity;
+    private long used = 0;
+    private long peak = 0;
+    private long nextTicket = 0;
+    private long serving = 0;
+    // Tickets of the threads interrupted while waiting for their turn
+    private final Set<Long> abandoned = new HashSet<>();
+
+    MemoryBudget(long capacity) {
+        this.capacity = Math.max(1, capacity);
+    }
+
+    /**
+     * Estimates the memory needed to transform a page from its dimensions: the decoded
+     * image (at most 4 bytes per pixel) and a second full copy when it is rotated.
+     */
+    static long estimate(int width, int height, boolean rotate) {
+        long decoded = (long) width * height * 4;
+        return rotate ? decoded * 2 : decoded;
+    }
+
+    long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Tells whether a page of this estimated size can only run alone.
+     */
+    boolean exceeds(long bytes) {
+        return bytes > capacity;
+    }
+
+    /**
+     * Waits until the given amount fits in the budget and reserves it.
+     *
+     * @return The amount actually reserved, to be given back to {@link #release}
+     */
+    synchronized long acquire(long bytes) throws InterruptedException {
+        long amount = Math.min(bytes, capacity);
+        long ticket = nextTicket++;
+        try {
+            while (ticket != serving || used + amount > capacity) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            // Give up the turn so the pages behind are not blocked forever
+            abandoned.add(ticket);
+            advance();
+            throw e;
+        }
+        used += amount;
+        peak = Math.max(peak, used);
+        serving++;
+        advance();
+        return amount;
+    }
+
+    synchronized void release(long amount) {
+        used -= amount;
+        notifyAll();
+    }
+
+    /**
+     * Highest amount reserved at the same time so far.
+     */
+    synchronized long getPeak() {
+        return peak;
+    }
+
+    private void advance() {
+        while (abandoned.remove(serving)) {
+            serving++;
+        }
+        notifyAll();
+    }
+}
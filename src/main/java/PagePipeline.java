@@ -0,0 +1,368 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Runs the pages of a volume through three stages connected by bounded queues:
+ * a read-ahead thread loading upcoming pages, the transform stage (on a thread pool,
+ * or on the calling thread if there is none) and a write-behind thread flushing results.
+ * Disk reads, pixel work and disk writes of different pages can therefore overlap.
+ * Results are always written in page order, so the writer can stream them into an archive;
+ * the number of pages in flight is bounded by the sum of the stage capacities. A page with
+ * many outputs can also hand them to the writer one by one while it is transformed, once
+ * the pages before it are written.
+ */
+class PagePipeline {
+
+    interface Reader<I> {
+        I read(int index) throws Exception;
+    }
+
+    interface Transformer<I, O> {
+        O transform(int index, I input, Emitter<O> emitter) throws Exception;
+    }
+
+    interface Writer<O, R> {
+        R write(int index, O output) throws Exception;
+    }
+
+    /**
+     * Passes outputs of the page being transformed to the writer before its transform returns.
+     * The writer receives them in order, followed by the output the transform returns.
+     */
+    interface Emitter<O> {
+        /**
+         * Waits until all the pages before this one are written (or the pipeline is aborted).
+         * Outputs emitted after that go straight to the writer.
+         */
+        void awaitTurn() throws InterruptedException;
+
+        /**
+         * Queues an output for the writer, after waiting for the turn of the page.
+         * Outputs are dropped once the pipeline is aborted.
+         */
+        void emit(O output) throws InterruptedException;
+    }
+
+    private static final long POLL_MILLIS = 100;
+
+    private final String name;
+    private final ExecutorService transformPool;
+    private final int transformSlots;
+    private final BooleanSupplier cancelled;
+    private final QueueStats readAheadStats;
+    private final QueueStats writeBehindStats;
+
+    private volatile Throwable failure = null;
+    // Number of pages written, notified on the object itself
+    private final Object turn = new Object();
+    private int written = 0;
+
+    /**
+     * @param name Prefix of the stage thread names
+     * @param readAheadDepth Maximum number of pages read ahead of the transform stage
+     * @param writeBehindDepth Maximum number of transformed pages waiting to be written
+     * @param transformPool Pool running the transforms, or null to transform on the calling thread
+     * @param transformSlots Maximum number of pages of this pipeline being transformed at once
+     * @param cancelled Tells whether the processing was cancelled
+     */
+    PagePipeline(String name, int readAheadDepth, int writeBehindDepth, ExecutorService transformPool,
+                 int transformSlots, BooleanSupplier cancelled) {
+        this.name = name;
+        this.transformPool = transformPool;
+        this.transformSlots = transformPool == null ? 1 : Math.max(1, transformSlots);
+        this.cancelled = cancelled;
+        this.readAheadStats = new QueueStats(Math.max(1, readAheadDepth));
+        this.writeBehindStats = new QueueStats(Math.max(1, writeBehindDepth));
+    }
+
+    /**
+     * Runs the pages through the stages.
+     *
+     * @param count Number of pages
+     * @return The write results in page order, or null if processing was cancelled
+     * @throws Exception The first error thrown by one of the stages
+     */
+    <I, O, R> List<R> run(int count, Reader<I> reader, Transformer<I, O> transformer, Writer<O, R> writer)
+            throws Exception {
+        BlockingQueue<Slot<I>> readAheadQueue = new ArrayBlockingQueue<>(readAheadStats.depth);
+        BlockingQueue<Slot<O>> writeBehindQueue = new ArrayBlockingQueue<>(writeBehindStats.depth);
+        List<R> results = new ArrayList<>(Collections.<R>nCopies(count, null));
+        // Pages read but not written yet, so out-of-order results waiting for their turn stay bounded
+        Semaphore window = new Semaphore(readAheadStats.depth + transformSlots + writeBehindStats.depth);
+        synchronized (turn) {
+            written = 0;
+        }
+
+        Thread readThread = new Thread(() -> {
+            try {
+                for (int i = 0; i < count && !isAborted(); i++) {
+                    if (!acquireUnlessAborted(window)) {
+                        break;
+                    }
+                    put(readAheadQueue, new Slot<>(i, reader.read(i)), readAheadStats);
+                }
+            } catch (Throwable t) {
+                fail(t);
+            } finally {
+                putEnd(readAheadQueue);
+            }
+        }, name + "-read-ahead");
+
+        Thread writeThread = new Thread(() -> {
+            try {
+                Map<Integer, O> pending = new HashMap<>();
+                int next = 0;
+                while (true) {
+                    Slot<O> slot = take(writeBehindQueue);
+                    if (slot == null || slot.index < 0) {
+                        break;
+                    }
+                    if (slot.partial) {
+                        // Only emitted on the turn of its page, so it is written right away
+                        if (!isAborted()) {
+                            writer.write(slot.index, slot.value);
+                        }
+                        continue;
+                    }
+                    pending.put(slot.index, slot.value);
+                    while (pending.containsKey(next) && !isAborted()) {
+                        results.set(next, writer.write(next, pending.remove(next)));
+                        window.release();
+                        next++;
+                        synchronized (turn) {
+                            written = next;
+                            turn.notifyAll();
+                        }
+                    }
+                }
+            } catch (Throwable t) {
+                fail(t);
+            }
+        }, name + "-write-behind");
+
+        readThread.setDaemon(true);
+        writeThread.setDaemon(true);
+        readThread.start();
+        writeThread.start();
+
+        Semaphore slots = new Semaphore(transformSlots);
+        try {
+            while (true) {
+                Slot<I> slot = take(readAheadQueue);
+                if (slot == null || slot.index < 0) {
+                    break;
+                }
+                acquire(slots);
+                Runnable task = () -> {
+                    try {
+                        if (!isAborted()) {
+                            O output = transformer.transform(slot.index, slot.value, new PageEmitter<>(slot.index,
+                                                                                                     writeBehindQueue));
+                            put(writeBehindQueue, new Slot<>(slot.index, output), writeBehindStats);
+                        }
+                    } catch (Throwable t) {
+                        fail(t);
+                    } finally {
+                        slots.release();
+                    }
+                };
+                if (transformPool == null) {
+                    task.run();
+                } else {
+                    try {
+                        transformPool.execute(task);
+                    } catch (RejectedExecutionException e) {
+                        slots.release();
+                        throw e;
+                    }
+                }
+            }
+            // Wait for the transforms still running before closing the write-behind queue
+            acquire(slots, transformSlots);
+        } catch (InterruptedException e) {
+            fail(e);
+            Thread.currentThread().interrupt();
+        } catch (Throwable t) {
+            fail(t);
+        } finally {
+            putEnd(writeBehindQueue);
+            joinQuietly(readThread);
+            joinQuietly(writeThread);
+        }
+
+        if (failure instanceof InterruptedException) {
+            return null;
+        }
+        if (failure instanceof Exception) {
+            throw (Exception) failure;
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        if (cancelled.getAsBoolean()) {
+            return null;
+        }
+        return results;
+    }
+
+    /**
+     * Describes how full the queues were during the last run.
+     */
+    String occupancyReport() {
+        return "read-ahead " + readAheadStats + ", write-behind " + writeBehindStats;
+    }
+
+    private boolean isAborted() {
+        return failure != null || cancelled.getAsBoolean();
+    }
+
+    private void fail(Throwable t) {
+        if (failure == null) {
+            failure = t;
+        }
+    }
+
+    private <T> void put(BlockingQueue<Slot<T>> queue, Slot<T> slot, QueueStats stats) throws InterruptedException {
+        while (!queue.offer(slot, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (isAborted()) {
+                return;
+            }
+        }
+        stats.sample(queue.size());
+    }
+
+    private <T> void putEnd(BlockingQueue<Slot<T>> queue) {
+        Slot<T> end = new Slot<>(-1, null);
+        try {
+            while (!queue.offer(end, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                // A full queue is drained by its consumer, unless the pipeline was aborted
+                if (isAborted()) {
+                    queue.clear();
+                }
+            }
+        } catch (InterruptedException e) {
+            fail(e);
+            queue.clear();
+            queue.offer(end);
+        }
+    }
+
+    private <T> Slot<T> take(BlockingQueue<Slot<T>> queue) throws InterruptedException {
+        while (true) {
+            Slot<T> slot = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            if (slot != null) {
+                return slot;
+            }
+            if (failure != null) {
+                return null;
+            }
+        }
+    }
+
+    private boolean acquireUnlessAborted(Semaphore semaphore) throws InterruptedException {
+        while (!semaphore.tryAcquire(POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (isAborted()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void acquire(Semaphore semaphore) throws InterruptedException {
+        acquire(semaphore, 1);
+    }
+
+    private void acquire(Semaphore semaphore, int permits) throws InterruptedException {
+        while (!semaphore.tryAcquire(permits, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            // Keep waiting: running transforms always release their permit, even on failure
+        }
+    }
+
+    private static void joinQuietly(Thread thread) {
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class Slot<T> {
+        final int index;
+        final T value;
+        // An output emitted before the one of the transform, see Emitter
+        final boolean partial;
+
+        Slot(int index, T value) {
+            this(index, value, false);
+        }
+
+        Slot(int index, T value, boolean partial) {
+            this.index = index;
+            this.value = value;
+            this.partial = partial;
+        }
+    }
+
+    private class PageEmitter<O> implements Emitter<O> {
+        private final int index;
+        private final BlockingQueue<Slot<O>> queue;
+
+        PageEmitter(int index, BlockingQueue<Slot<O>> queue) {
+            this.index = index;
+            this.queue = queue;
+        }
+
+        @Override
+        public void awaitTurn() throws InterruptedException {
+            synchronized (turn) {
+                while (written < index && !isAborted()) {
+                    turn.wait(POLL_MILLIS);
+                }
+            }
+        }
+
+        @Override
+        public void emit(O output) throws InterruptedException {
+            awaitTurn();
+            if (!isAborted()) {
+                put(queue, new Slot<>(index, output, true), writeBehindStats);
+            }
+        }
+    }
+
+    /**
+     * Occupancy samples of one queue, taken every time an element is added.
+     */
+    private static class QueueStats {
+        final int depth;
+        private long samples = 0;
+        private long total = 0;
+        private int max = 0;
+
+        QueueStats(int depth) {
+            this.depth = depth;
+        }
+
+        synchronized void sample(int size) {
+            samples++;
+            total += size;
+            max = Math.max(max, size);
+        }
+
+        @Override
+        public synchronized String toString() {
+            double average = samples == 0 ? 0 : (double) total / samples;
+            return String.format("avg %.1f / max %d of %d", average, max, depth);
+        }
+    }
+}
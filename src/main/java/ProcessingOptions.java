@@ -0,0 +1,166 @@
+import java.util.prefs.Preferences;
+
+/**
+ * Advanced settings for a processing run (performance tuning and extra page handling).
+ * They are edited in the "Settings" menu of the UI and persisted in the same
+ * preferences node as the theme, so they survive restarts.
+ */
+public class ProcessingOptions {
+
+    public static final int MAX_QUEUE_DEPTH = 64;
+    public static final int MAX_ARCHIVE_WINDOW = 64;
+
+    // Compression of ZIP/CBZ output entries
+    public static final int ZIP_DEFLATE_ALL = 0;
+    public static final int ZIP_STORE_COMPRESSED_IMAGES = 1;
+    public static final int ZIP_SAMPLE_PER_VOLUME = 2;
+
+    // Chroma subsampling of encoded JPEG pages
+    public static final int JPEG_SUBSAMPLING_420 = 0;
+    public static final int JPEG_SUBSAMPLING_422 = 1;
+    public static final int JPEG_SUBSAMPLING_444 = 2;
+
+    public static final int MIN_STRIP_PAGE_HEIGHT = 200;
+    public static final int MAX_STRIP_PAGE_HEIGHT = 10000;
+
+    // Number of volumes processed at the same time (1 = one after the other)
+    public int volumeThreads = 1;
+    // Number of threads transforming pages, shared by all volumes (1 = pages in order on the volume thread)
+    public int pageThreads = 1;
+    // Pages read ahead of the transform stage, and transformed pages waiting to be written
+    public int readAheadDepth = 4;
+    public int writeBehindDepth = 4;
+    // ZIP/CBZ input with ZIP/CBZ output is transcoded entry by entry, without extraction
+    public boolean streamArchives = false;
+    // Archives extracted ahead, processed and cleaned up in a rolling window (0 = extract all before processing)
+    public int archiveWindow = 0;
+    // How ZIP/CBZ output entries are compressed, and the deflate level (0-9) of deflated ones
+    public int zipCompression = ZIP_STORE_COMPRESSED_IMAGES;
+    public int deflateLevel = 6;
+    // JPEG pages are cropped, split and rotated on their DCT coefficients when the cuts are MCU-aligned
+    public boolean losslessJpeg = true;
+    // Encoder settings of re-encoded pages: JPEG quality (1-100), progressive scans and chroma subsampling
+    public int jpegQuality = 75;
+    public boolean jpegProgressive = false;
+    public int jpegSubsampling = JPEG_SUBSAMPLING_420;
+    // PNG deflate level (0-9, -1 = encoder default)
+    public int pngCompressionLevel = -1;
+    // Re-encoded pages holding only shades of gray are encoded with a single channel instead of three
+    public boolean encodeGrayscale = false;
+    // Screen the re-encoded pages are downscaled to fit, index in DeviceProfile.PROFILES (0 = original size)
+    public int deviceProfile = 0;
+    // Every page is re-encoded for 16-level e-ink displays: dithered to 16 grays and written as a 4-bit PNG
+    public boolean einkOutput = false;
+    // EXIF, thumbnails and comments are dropped from losslessly transformed JPEG pages
+    public boolean stripMetadata = false;
+    // Decoded pixel data of the pages transformed at the same time, in MB (0 = half of the maximum heap)
+    public int memoryBudgetMb = 0;
+    // Pages above these limits are never decoded (0 = no limit): pixels decoded at once, in millions,
+    // and decoded size (4 bytes per pixel) divided by the file size
+    public int maxPageMegapixels = 150;
+    public int maxDecodedRatio = 10000;
+    // Double pages are split at the blank band found near their middle instead of exactly in the middle
+    public boolean detectGutter = false;
+    // Uniform borders are trimmed from every page, after the fixed crop
+    public boolean autoTrim = false;
+    // Blank filler pages (a single color) are left out of the output
+    public boolean dropBlankPages = false;
+    // Copies of a page within a volume (even at another resolution) are left out, the first one is kept
+    public boolean dropDuplicatePages = false;
+    // Height around which long vertical strips are cut into pages (strip slicing split mode)
+    public int stripPageHeight = 1280;
+
+    /**
+     * Loads the options from the given preferences node, falling back to defaults.
+     *
+     * @param prefs The preferences node to read from
+     * @return The loaded options
+     */
+    public static ProcessingOptions load(Preferences prefs) {
+        ProcessingOptions options = new ProcessingOptions();
+        options.volumeThreads = clamp(prefs.getInt("volumeThreads", options.volumeThreads), 1, maxThreads());
+        options.pageThreads = clamp(prefs.getInt("pageThreads", options.pageThreads), 1, maxThreads());
+        options.readAheadDepth = clamp(prefs.getInt("readAheadDepth", options.readAheadDepth), 1, MAX_QUEUE_DEPTH);
+        options.writeBehindDepth = clamp(prefs.getInt("writeBehindDepth", options.writeBehindDepth), 1, MAX_QUEUE_DEPTH);
+        options.streamArchives = prefs.getBoolean("streamArchives", options.streamArchives);
+        options.archiveWindow = clamp(prefs.getInt("archiveWindow", options.archiveWindow), 0, MAX_ARCHIVE_WINDOW);
+        options.zipCompression = clamp(prefs.getInt("zipCompression", options.zipCompression),
+                                       ZIP_DEFLATE_ALL, ZIP_SAMPLE_PER_VOLUME);
+        options.deflateLevel = clamp(prefs.getInt("deflateLevel", options.deflateLevel), 0, 9);
+        options.losslessJpeg = prefs.getBoolean("losslessJpeg", options.losslessJpeg);
+        options.jpegQuality = clamp(prefs.getInt("jpegQuality", options.jpegQuality), 1, 100);
+        options.jpegProgressive = prefs.getBoolean("jpegProgressive", options.jpegProgressive);
+        options.jpegSubsampling = clamp(prefs.getInt("jpegSubsampling", options.jpegSubsampling),
+                                        JPEG_SUBSAMPLING_420, JPEG_SUBSAMPLING_444);
+        options.pngCompressionLevel = clamp(prefs.getInt("pngCompressionLevel", options.pngCompressionLevel), -1, 9);
+        options.encodeGrayscale = prefs.getBoolean("encodeGrayscale", options.encodeGrayscale);
+        options.einkOutput = prefs.getBoolean("einkOutput", options.einkOutput);
+        options.deviceProfile = clamp(prefs.getInt("deviceProfile", options.deviceProfile),
+                                      0, DeviceProfile.PROFILES.length - 1);
+        options.stripMetadata = prefs.getBoolean("stripMetadata", options.stripMetadata);
+        options.detectGutter = prefs.getBoolean("detectGutter", options.detectGutter);
+        options.autoTrim = prefs.getBoolean("autoTrim", options.autoTrim);
+        options.dropBlankPages = prefs.getBoolean("dropBlankPages", options.dropBlankPages);
+        options.dropDuplicatePages = prefs.getBoolean("dropDuplicatePages", options.dropDuplicatePages);
+        options.maxPageMegapixels = Math.max(0, prefs.getInt("maxPageMegapixels", options.maxPageMegapixels));
+        options.maxDecodedRatio = Math.max(0, prefs.getInt("maxDecodedRatio", options.maxDecodedRatio));
+        options.stripPageHeight = clamp(prefs.getInt("stripPageHeight", options.stripPageHeight),
+                                        MIN_STRIP_PAGE_HEIGHT, MAX_STRIP_PAGE_HEIGHT);
+        options.memoryBudgetMb = clamp(prefs.getInt("memoryBudgetMb", options.memoryBudgetMb), 0, maxMemoryMb());
+        return options;
+    }
+
+    /**
+     * Stores the options in the given preferences node.
+     *
+     * @param prefs The preferences node to write to
+     */
+    public void save(Preferences prefs) {
+        prefs.putInt("volumeThreads", volumeThreads);
+        prefs.putInt("pageThreads", pageThreads);
+        prefs.putInt("readAheadDepth", readAheadDepth);
+        prefs.putInt("writeBehindDepth", writeBehindDepth);
+        prefs.putBoolean("streamArchives", streamArchives);
+        prefs.putInt("archiveWindow", archiveWindow);
+        prefs.putInt("zipCompression", zipCompression);
+        prefs.putInt("deflateLevel", deflateLevel);
+        prefs.putBoolean("losslessJpeg", losslessJpeg);
+        prefs.putInt("jpegQuality", jpegQuality);
+        prefs.putBoolean("jpegProgressive", jpegProgressive);
+        prefs.putInt("jpegSubsampling", jpegSubsampling);
+        prefs.putInt("pngCompressionLevel", pngCompressionLevel);
+        prefs.putBoolean("encodeGrayscale", encodeGrayscale);
+        prefs.putBoolean("einkOutput", einkOutput);
+        prefs.putInt("deviceProfile", deviceProfile);
+        prefs.putBoolean("stripMetadata", stripMetadata);
+        prefs.putBoolean("detectGutter", detectGutter);
+        prefs.putBoolean("autoTrim", autoTrim);
+        prefs.putBoolean("dropBlankPages", dropBlankPages);
+        prefs.putBoolean("dropDuplicatePages", dropDuplicatePages);
+        prefs.putInt("memoryBudgetMb", memoryBudgetMb);
+        prefs.putInt("stripPageHeight", stripPageHeight);
+        prefs.putInt("maxPageMegapixels", maxPageMegapixels);
+        prefs.putInt("maxDecodedRatio", maxDecodedRatio);
+    }
+
+    public static int maxThreads() {
+        return Math.max(1, Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    public static int maxMemoryMb() {
+        return (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / (1024 * 1024));
+    }
+
+    /**
+     * The memory budget in bytes, resolving the automatic setting. It covers both the pages
+     * being transformed and the images retained for reuse.
+     */
+    public long memoryBudgetBytes() {
+        long megabytes = memoryBudgetMb > 0 ? memoryBudgetMb : Math.max(1, maxMemoryMb() / 2);
+        return megabytes * 1024 * 1024;
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
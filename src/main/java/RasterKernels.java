@@ -0,0 +1,394 @@
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+/**
+ * Pixel kernels working directly on the arrays backing the images, for the common
+ * layouts (one int per pixel, or interleaved bytes), instead of going through Java2D.
+ * Page analysis reads rows of luminance through them and works on plain int arrays,
+ * without a getRGB call and its color model conversion for every pixel.
+ */
+class RasterKernels {
+
+    // Pixels are moved by square tiles so both the rows read and the columns written stay in cache
+    private static final int TILE = 64;
+
+    private RasterKernels() {
+    }
+
+    /**
+     * Rotates an image 90° clockwise.
+     *
+     * @param pool Pool providing the rotated image, or null to allocate a new one
+     */
+    static BufferedImage rotateClockwise(BufferedImage src, RasterPool pool) {
+        int width = src.getWidth();
+        int height = src.getHeight();
+        int type = src.getType();
+
+        try {
+            BufferedImage dst = pool != null && RasterPool.isPoolable(type)
+                    ? pool.acquire(height, width, type)
+                    : newImage(src, height, width);
+            if (sameDirectLayout(src.getRaster(), dst.getRaster())) {
+                rotate(src.getRaster(), dst.getRaster());
+                return dst;
+            }
+
+            // Same color model, any other layout: pixels are moved one by one through the raster API
+            Raster in = src.getRaster();
+            WritableRaster out = dst.getRaster();
+            Object pixel = null;
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    pixel = in.getDataElements(x, y, pixel);
+                    out.setDataElements(height - 1 - y, x, pixel);
+                }
+            }
+            return dst;
+        } catch (RuntimeException e) {
+            // Layout that cannot be recreated: normalize it to a standard type first
+            BufferedImage normalized = new BufferedImage(width, height, src.getColorModel().hasAlpha()
+                    ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+            Graphics2D g2d = normalized.createGraphics();
+            g2d.setComposite(AlphaComposite.Src);
+            g2d.drawImage(src, 0, 0, null);
+            g2d.dispose();
+            BufferedImage dst = new BufferedImage(height, width, normalized.getType());
+            rotate(normalized.getRaster(), dst.getRaster());
+            return dst;
+        }
+    }
+
+    /**
+     * Reads the luminance (0-255) of every {@code step}-th pixel of a row.
+     *
+     * @param luma Receives the values, at least {@code ceil(width / step)} long
+     * @return The number of values read
+     */
+    static int luminanceRow(BufferedImage img, int y, int step, int[] luma) {
+        int count = (img.getWidth() + step - 1) / step;
+        readLuminance(img, 0, y, step, 0, count, luma);
+        return count;
+    }
+
+    /**
+     * Reads the luminance (0-255) of every {@code step}-th pixel of a column.
+     *
+     * @param luma Receives the values, at least {@code ceil(height / step)} long
+     * @return The number of values read
+     */
+    static int luminanceColumn(BufferedImage img, int x, int step, int[] luma) {
+        int count = (img.getHeight() + step - 1) / step;
+        readLuminance(img, x, 0, 0, step, count, luma);
+        return count;
+    }
+
+    /**
+     * Reads the luminance of {@code count} pixels, from (x, y) and moving by (stepX, stepY).
+     */
+    private static void readLuminance(BufferedImage img, int x, int y, int stepX, int stepY, int count, int[] luma) {
+        Raster raster = img.getRaster();
+        DataBuffer buffer = raster.getDataBuffer();
+        int type = img.getType();
+
+        if (buffer.getNumBanks() == 1 && buffer instanceof DataBufferInt
+                && (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)) {
+            int[] data = ((DataBufferInt) buffer).getData();
+            int stride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+            int from = origin(raster, stride, 1) + y * stride + x;
+            int jump = stepY * stride + stepX;
+            for (int i = 0; i < count; i++) {
+                int rgb = data[from + i * jump];
+                luma[i] = luminance((rgb >> 16) & 0xFF, (rgb >> 8) & 0xFF, rgb & 0xFF);
+            }
+        } else if (buffer.getNumBanks() == 1 && buffer instanceof DataBufferByte
+                && (type == BufferedImage.TYPE_3BYTE_BGR || type == BufferedImage.TYPE_4BYTE_ABGR
+                    || type == BufferedImage.TYPE_BYTE_GRAY)) {
+            byte[] data = ((DataBufferByte) buffer).getData();
+            ComponentSampleModel model = (ComponentSampleModel) raster.getSampleModel();
+            int pixelStride = model.getPixelStride();
+            int stride = model.getScanlineStride();
+            int from = origin(raster, stride, pixelStride) + y * stride + x * pixelStride;
+            int jump = stepY * stride + stepX * pixelStride;
+            if (type == BufferedImage.TYPE_BYTE_GRAY) {
+                for (int i = 0; i < count; i++) {
+                    luma[i] = data[from + i * jump] & 0xFF;
+                }
+            } else {
+                // The band offsets locate red, green and blue within the pixel, for BGR and ABGR alike
+                int[] offsets = model.getBandOffsets();
+                int r = from + offsets[0];
+                int g = from + offsets[1];
+                int b = from + offsets[2];
+                for (int i = 0; i < count; i++) {
+                    int at = i * jump;
+                    luma[i] = luminance(data[r + at] & 0xFF, data[g + at] & 0xFF, data[b + at] & 0xFF);
+                }
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                int rgb = img.getRGB(x + i * stepX, y + i * stepY);
+                luma[i] = luminance((rgb >> 16) & 0xFF, (rgb >> 8) & 0xFF, rgb & 0xFF);
+            }
+        }
+    }
+
+    /**
+     * Counts the pixels of a row, every {@code step}-th one, whose color channels differ from
+     * each other by more than a tolerance, so they are not a shade of gray.
+     */
+    static int countColored(BufferedImage img, int y, int step, int tolerance) {
+        Raster raster = img.getRaster();
+        DataBuffer buffer = raster.getDataBuffer();
+        int type = img.getType();
+        int count = (img.getWidth() + step - 1) / step;
+        int colored = 0;
+
+        if (type == BufferedImage.TYPE_BYTE_GRAY || type == BufferedImage.TYPE_USHORT_GRAY) {
+            return 0;
+        } else if (buffer.getNumBanks() == 1 && buffer instanceof DataBufferInt
+                && (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)) {
+            int[] data = ((DataBufferInt) buffer).getData();
+            int stride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+            int from = origin(raster, stride, 1) + y * stride;
+            for (int i = 0; i < count; i++) {
+                int rgb = data[from + i * step];
+                colored += chroma((rgb >> 16) & 0xFF, (rgb >> 8) & 0xFF, rgb & 0xFF) > tolerance ? 1 : 0;
+            }
+        } else if (buffer.getNumBanks() == 1 && buffer instanceof DataBufferByte
+                && (type == BufferedImage.TYPE_3BYTE_BGR || type == BufferedImage.TYPE_4BYTE_ABGR)) {
+            byte[] data = ((DataBufferByte) buffer).getData();
+            ComponentSampleModel model = (ComponentSampleModel) raster.getSampleModel();
+            int pixelStride = model.getPixelStride();
+            int stride = model.getScanlineStride();
+            int from = origin(raster, stride, pixelStride) + y * stride;
+            int[] offsets = model.getBandOffsets();
+            int r = from + offsets[0];
+            int g = from + offsets[1];
+            int b = from + offsets[2];
+            int jump = step * pixelStride;
+            for (int i = 0; i < count; i++) {
+                int at = i * jump;
+                colored += chroma(data[r + at] & 0xFF, data[g + at] & 0xFF, data[b + at] & 0xFF) > tolerance ? 1 : 0;
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                int rgb = img.getRGB(i * step, y);
+                colored += chroma((rgb >> 16) & 0xFF, (rgb >> 8) & 0xFF, rgb & 0xFF) > tolerance ? 1 : 0;
+            }
+        }
+        return colored;
+    }
+
+    /**
+     * Converts an image to 8-bit grayscale, one luminance row at a time.
+     *
+     * @param pool Pool providing the grayscale image, or null to allocate a new one
+     */
+    static BufferedImage toGray(BufferedImage src, RasterPool pool) {
+        int width = src.getWidth();
+        int height = src.getHeight();
+        BufferedImage dst = pool != null ? pool.acquire(width, height, BufferedImage.TYPE_BYTE_GRAY)
+                                         : new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        WritableRaster raster = dst.getRaster();
+        byte[] out = ((DataBufferByte) raster.getDataBuffer()).getData();
+        int stride = ((ComponentSampleModel) raster.getSampleModel()).getScanlineStride();
+        int[] luma = new int[width];
+        for (int y = 0; y < height; y++) {
+            luminanceRow(src, y, 1, luma);
+            int to = y * stride;
+            for (int x = 0; x < width; x++) {
+                out[to + x] = (byte) luma[x];
+            }
+        }
+        return dst;
+    }
+
+    /**
+     * Tells whether the difference between the darkest and the lightest values stays
+     * within a tolerance. Stops at the first block of values exceeding it.
+     */
+    static boolean isUniform(int[] luma, int count, int tolerance) {
+        int min = 255;
+        int max = 0;
+        // The range is checked once per block of values rather than after every value
+        for (int start = 0; start < count; start += TILE) {
+            int end = Math.min(count, start + TILE);
+            for (int i = start; i < end; i++) {
+                min = Math.min(min, luma[i]);
+                max = Math.max(max, luma[i]);
+            }
+            if (max - min > tolerance) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Counts the values differing from a reference by more than a given amount.
+     */
+    static int countDifferent(int[] luma, int count, int reference, int delta) {
+        int different = 0;
+        for (int i = 0; i < count; i++) {
+            different += Math.abs(luma[i] - reference) > delta ? 1 : 0;
+        }
+        return different;
+    }
+
+    /**
+     * Adds up luminance values into a histogram of 256 bins.
+     */
+    static void addToHistogram(int[] luma, int count, int[] histogram) {
+        for (int i = 0; i < count; i++) {
+            histogram[luma[i]]++;
+        }
+    }
+
+    /**
+     * Adds luminance values and their squares to running per-column sums, building
+     * a column profile (mean and variance) row by row.
+     */
+    static void addToProfile(int[] luma, int offset, int count, long[] sums, long[] squares) {
+        for (int i = 0; i < count; i++) {
+            int value = luma[offset + i];
+            sums[i] += value;
+            squares[i] += value * value;
+        }
+    }
+
+    private static int luminance(int r, int g, int b) {
+        return (r * 299 + g * 587 + b * 114) / 1000;
+    }
+
+    private static int chroma(int r, int g, int b) {
+        return Math.max(r, Math.max(g, b)) - Math.min(r, Math.min(g, b));
+    }
+
+    /**
+     * Tells whether the pixels of two rasters are stored the same way, either as one int
+     * per pixel or as interleaved bytes, so they can be moved as raw array elements.
+     */
+    private static boolean sameDirectLayout(Raster src, Raster dst) {
+        DataBuffer in = src.getDataBuffer();
+        DataBuffer out = dst.getDataBuffer();
+        if (in.getNumBanks() != 1 || out.getNumBanks() != 1) {
+            return false;
+        }
+        SampleModel inModel = src.getSampleModel();
+        SampleModel outModel = dst.getSampleModel();
+        if (in instanceof DataBufferInt && out instanceof DataBufferInt
+                && inModel instanceof SinglePixelPackedSampleModel && outModel instanceof SinglePixelPackedSampleModel) {
+            return Arrays.equals(((SinglePixelPackedSampleModel) inModel).getBitMasks(),
+                                 ((SinglePixelPackedSampleModel) outModel).getBitMasks());
+        }
+        if (in instanceof DataBufferByte && out instanceof DataBufferByte
+                && inModel instanceof PixelInterleavedSampleModel && outModel instanceof PixelInterleavedSampleModel) {
+            ComponentSampleModel inComponents = (ComponentSampleModel) inModel;
+            ComponentSampleModel outComponents = (ComponentSampleModel) outModel;
+            for (int offset : inComponents.getBandOffsets()) {
+                if (offset < 0 || offset >= inComponents.getPixelStride()) {
+                    return false;
+                }
+            }
+            return inComponents.getPixelStride() == outComponents.getPixelStride()
+                    && Arrays.equals(inComponents.getBandOffsets(), outComponents.getBandOffsets());
+        }
+        return false;
+    }
+
+    private static void rotate(Raster src, WritableRaster dst) {
+        int width = src.getWidth();
+        int height = src.getHeight();
+        if (src.getDataBuffer() instanceof DataBufferInt) {
+            int[] in = ((DataBufferInt) src.getDataBuffer()).getData();
+            int[] out = ((DataBufferInt) dst.getDataBuffer()).getData();
+            int inStride = ((SinglePixelPackedSampleModel) src.getSampleModel()).getScanlineStride();
+            int outStride = ((SinglePixelPackedSampleModel) dst.getSampleModel()).getScanlineStride();
+            int inBase = origin(src, inStride, 1);
+            int outBase = origin(dst, outStride, 1);
+            for (int tileY = 0; tileY < height; tileY += TILE) {
+                int endY = Math.min(height, tileY + TILE);
+                for (int tileX = 0; tileX < width; tileX += TILE) {
+                    int endX = Math.min(width, tileX + TILE);
+                    // Source column x becomes destination row x, written from right to left
+                    for (int x = tileX; x < endX; x++) {
+                        int from = inBase + tileY * inStride + x;
+                        int to = outBase + x * outStride + (height - 1 - tileY);
+                        for (int y = tileY; y < endY; y++) {
+                            out[to] = in[from];
+                            from += inStride;
+                            to--;
+                        }
+                    }
+                }
+            }
+        } else {
+            byte[] in = ((DataBufferByte) src.getDataBuffer()).getData();
+            byte[] out = ((DataBufferByte) dst.getDataBuffer()).getData();
+            ComponentSampleModel inModel = (ComponentSampleModel) src.getSampleModel();
+            ComponentSampleModel outModel = (ComponentSampleModel) dst.getSampleModel();
+            int pixelStride = inModel.getPixelStride();
+            int inStride = inModel.getScanlineStride();
+            int outStride = outModel.getScanlineStride();
+            int inBase = origin(src, inStride, pixelStride);
+            int outBase = origin(dst, outStride, pixelStride);
+            for (int tileY = 0; tileY < height; tileY += TILE) {
+                int endY = Math.min(height, tileY + TILE);
+                for (int tileX = 0; tileX < width; tileX += TILE) {
+                    int endX = Math.min(width, tileX + TILE);
+                    for (int x = tileX; x < endX; x++) {
+                        int from = inBase + tileY * inStride + x * pixelStride;
+                        int to = outBase + x * outStride + (height - 1 - tileY) * pixelStride;
+                        for (int y = tileY; y < endY; y++) {
+                            // Unrolled for the common gray and BGR layouts
+                            if (pixelStride == 3) {
+                                out[to] = in[from];
+                                out[to + 1] = in[from + 1];
+                                out[to + 2] = in[from + 2];
+                            } else if (pixelStride == 1) {
+                                out[to] = in[from];
+                            } else {
+                                System.arraycopy(in, from, out, to, pixelStride);
+                            }
+                            from += inStride;
+                            to -= pixelStride;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Index of the top-left pixel of a raster in its data array, for sub-images too.
+     */
+    private static int origin(Raster raster, int scanlineStride, int pixelStride) {
+        return raster.getDataBuffer().getOffset()
+                + (raster.getMinY() - raster.getSampleModelTranslateY()) * scanlineStride
+                + (raster.getMinX() - raster.getSampleModelTranslateX()) * pixelStride;
+    }
+
+    private static BufferedImage newImage(BufferedImage src, int width, int height) {
+        if (src.getType() != BufferedImage.TYPE_CUSTOM && src.getType() != BufferedImage.TYPE_BYTE_INDEXED
+                && src.getType() != BufferedImage.TYPE_BYTE_BINARY) {
+            return new BufferedImage(width, height, src.getType());
+        }
+        // Keeps the palette of indexed images and the exact layout of custom ones
+        ColorModel colorModel = src.getColorModel();
+        WritableRaster raster = colorModel.createCompatibleWritableRaster(width, height);
+        return new BufferedImage(colorModel, raster, colorModel.isAlphaPremultiplied(), null);
+    }
+}
@@ -0,0 +1,116 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Keeps the images of pages that were encoded, so the next decode or rotation of the same
+ * dimensions and pixel type reuses their pixel arrays instead of allocating new ones.
+ * Only standard types are pooled, since their color model is fully given by the type.
+ * The retained images are bounded in bytes, the oldest ones being dropped first.
+ */
+class RasterPool {
+
+    private final long maxRetainedBytes;
+    // Retained images, oldest first
+    private final LinkedList<BufferedImage> retained = new LinkedList<>();
+    private long retainedBytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long allocatedBytes = 0;
+
+    RasterPool(long maxRetainedBytes) {
+        this.maxRetainedBytes = maxRetainedBytes;
+    }
+
+    /**
+     * Tells whether images of this type can be pooled.
+     */
+    static boolean isPoolable(int imageType) {
+        switch (imageType) {
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_INT_ARGB:
+            case BufferedImage.TYPE_INT_BGR:
+            case BufferedImage.TYPE_3BYTE_BGR:
+            case BufferedImage.TYPE_4BYTE_ABGR:
+            case BufferedImage.TYPE_BYTE_GRAY:
+            case BufferedImage.TYPE_USHORT_GRAY:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Returns an image of the given dimensions and type, reused if one is available.
+     * Its pixels are undefined: the caller must overwrite all of them.
+     */
+    BufferedImage acquire(int width, int height, int imageType) {
+        synchronized (this) {
+            Iterator<BufferedImage> it = retained.iterator();
+            while (it.hasNext()) {
+                BufferedImage img = it.next();
+                if (img.getWidth() == width && img.getHeight() == height && img.getType() == imageType) {
+                    it.remove();
+                    retainedBytes -= sizeOf(img);
+                    hits++;
+                    return img;
+                }
+            }
+            misses++;
+            allocatedBytes += (long) width * height * bytesPerPixel(imageType);
+        }
+        return new BufferedImage(width, height, imageType);
+    }
+
+    /**
+     * Gives back an image that is no longer used. Sub-images and non-poolable types are ignored.
+     */
+    void release(BufferedImage img) {
+        if (img == null || !isPoolable(img.getType()) || img.getRaster().getParent() != null
+                || img.getRaster().getMinX() != 0 || img.getRaster().getMinY() != 0) {
+            return;
+        }
+        long size = sizeOf(img);
+        if (size > maxRetainedBytes) {
+            return;
+        }
+        synchronized (this) {
+            for (BufferedImage kept : retained) {
+                if (kept == img) {
+                    return;
+                }
+            }
+            while (retainedBytes + size > maxRetainedBytes && !retained.isEmpty()) {
+                retainedBytes -= sizeOf(retained.removeFirst());
+            }
+            retained.addLast(img);
+            retainedBytes += size;
+        }
+    }
+
+    /**
+     * Describes how often images were reused.
+     */
+    synchronized String report() {
+        return String.format("%d hits, %d misses (%.1f MB allocated)", hits, misses, allocatedBytes / (1024.0 * 1024.0));
+    }
+
+    private static long sizeOf(BufferedImage img) {
+        DataBuffer buffer = img.getRaster().getDataBuffer();
+        return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+
+    private static int bytesPerPixel(int imageType) {
+        switch (imageType) {
+            case BufferedImage.TYPE_BYTE_GRAY:
+                return 1;
+            case BufferedImage.TYPE_USHORT_GRAY:
+                return 2;
+            case BufferedImage.TYPE_3BYTE_BGR:
+                return 3;
+            default:
+                return 4;
+        }
+    }
+}
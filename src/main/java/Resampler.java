@@ -0,0 +1,246 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.util.Arrays;
+
+/**
+ * Downscales images with a separable Catmull-Rom filter, stretched over the source pixels
+ * each output pixel covers so fine screentones do not alias. The filter weights are computed
+ * once per axis in fixed point; each source row is filtered horizontally once, kept in a
+ * small ring of the rows the current output row needs, and the rows are then combined
+ * vertically. The inner loops are plain integer multiply-adds over interleaved channels.
+ */
+class Resampler {
+
+    // Fixed-point precision of the filter weights
+    private static final int WEIGHT_BITS = 14;
+    // Bits dropped after the horizontal pass, so the vertical sums stay within an int
+    private static final int HORIZONTAL_SHIFT = 7;
+    private static final int OUTPUT_SHIFT = 2 * WEIGHT_BITS - HORIZONTAL_SHIFT;
+    // Catmull-Rom reaches two pixels on each side
+    private static final double FILTER_RADIUS = 2;
+
+    /**
+     * Filter of one axis: for each output position, the first source position it reads and
+     * the weights of the following ones (the stride of the weights is the largest count).
+     */
+    private static final class Taps {
+        final int[] first;
+        final int[] count;
+        final int[] weights;
+        final int stride;
+
+        Taps(int[] first, int[] count, int[] weights, int stride) {
+            this.first = first;
+            this.count = count;
+            this.weights = weights;
+            this.stride = stride;
+        }
+    }
+
+    private Resampler() {
+    }
+
+    /**
+     * Downscales an image to the given size. Grayscale images stay 8-bit grayscale, other
+     * images become 3-byte BGR, or 4-byte ABGR if they have transparency.
+     *
+     * @param pool Pool providing the downscaled image, or null to allocate a new one
+     */
+    static BufferedImage downscale(BufferedImage src, int width, int height, RasterPool pool) {
+        int type;
+        int channels;
+        if (src.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+            type = BufferedImage.TYPE_BYTE_GRAY;
+            channels = 1;
+        } else if (src.getColorModel().hasAlpha()) {
+            type = BufferedImage.TYPE_4BYTE_ABGR;
+            channels = 4;
+        } else {
+            type = BufferedImage.TYPE_3BYTE_BGR;
+            channels = 3;
+        }
+        BufferedImage dst = pool != null ? pool.acquire(width, height, type) : new BufferedImage(width, height, type);
+        byte[] out = ((DataBufferByte) dst.getRaster().getDataBuffer()).getData();
+
+        Taps horizontal = taps(src.getWidth(), width);
+        Taps vertical = taps(src.getHeight(), height);
+        int rowLength = width * channels;
+        // Horizontally filtered source rows, each one at the index of its row modulo the ring size
+        int[][] ring = new int[vertical.stride][rowLength];
+        int[] ringRows = new int[vertical.stride];
+        Arrays.fill(ringRows, -1);
+        int[] source = new int[src.getWidth() * channels];
+        Object pixels = null;
+        int[] sums = new int[rowLength];
+
+        for (int y = 0; y < height; y++) {
+            Arrays.fill(sums, 0);
+            for (int k = 0; k < vertical.count[y]; k++) {
+                int sourceY = vertical.first[y] + k;
+                int slot = sourceY % ring.length;
+                if (ringRows[slot] != sourceY) {
+                    pixels = readRow(src, sourceY, channels, source, pixels);
+                    filterRow(source, channels, horizontal, ring[slot]);
+                    ringRows[slot] = sourceY;
+                }
+                int weight = vertical.weights[y * vertical.stride + k];
+                int[] row = ring[slot];
+                for (int i = 0; i < rowLength; i++) {
+                    sums[i] += weight * row[i];
+                }
+            }
+            int to = y * rowLength;
+            int round = 1 << (OUTPUT_SHIFT - 1);
+            for (int i = 0; i < rowLength; i++) {
+                int value = (sums[i] + round) >> OUTPUT_SHIFT;
+                out[to + i] = (byte) Math.max(0, Math.min(255, value));
+            }
+        }
+        return dst;
+    }
+
+    /**
+     * Reads the channels of a source row, in the byte order of the downscaled image.
+     *
+     * @param pixels Array reused by the raster between rows
+     * @return The array to pass for the next row
+     */
+    private static Object readRow(BufferedImage src, int y, int channels, int[] source, Object pixels) {
+        int width = src.getWidth();
+        int type = src.getType();
+        Raster raster = src.getRaster();
+        if (type == BufferedImage.TYPE_BYTE_GRAY || type == BufferedImage.TYPE_3BYTE_BGR
+                || type == BufferedImage.TYPE_4BYTE_ABGR) {
+            // Same channels as the downscaled image, but returned in band order (R, G, B then alpha)
+            // rather than in the byte order of the image
+            byte[] bytes = (byte[]) raster.getDataElements(0, y, width, 1, pixels);
+            if (channels == 1) {
+                for (int i = 0; i < width; i++) {
+                    source[i] = bytes[i] & 0xFF;
+                }
+            } else if (channels == 4) {
+                for (int i = 0; i < width * 4; i += 4) {
+                    source[i] = bytes[i + 3] & 0xFF;
+                    source[i + 1] = bytes[i + 2] & 0xFF;
+                    source[i + 2] = bytes[i + 1] & 0xFF;
+                    source[i + 3] = bytes[i] & 0xFF;
+                }
+            } else {
+                for (int i = 0; i < width * 3; i += 3) {
+                    source[i] = bytes[i + 2] & 0xFF;
+                    source[i + 1] = bytes[i + 1] & 0xFF;
+                    source[i + 2] = bytes[i] & 0xFF;
+                }
+            }
+            return bytes;
+        }
+        int[] argb;
+        if (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB) {
+            argb = (int[]) raster.getDataElements(0, y, width, 1, pixels);
+        } else {
+            argb = pixels instanceof int[] ? (int[]) pixels : new int[width];
+            src.getRGB(0, y, width, 1, argb, 0, width);
+        }
+        if (channels == 4) {
+            for (int x = 0; x < width; x++) {
+                int value = argb[x];
+                source[x * 4] = value >>> 24;
+                source[x * 4 + 1] = value & 0xFF;
+                source[x * 4 + 2] = (value >> 8) & 0xFF;
+                source[x * 4 + 3] = (value >> 16) & 0xFF;
+            }
+        } else {
+            for (int x = 0; x < width; x++) {
+                int value = argb[x];
+                source[x * 3] = value & 0xFF;
+                source[x * 3 + 1] = (value >> 8) & 0xFF;
+                source[x * 3 + 2] = (value >> 16) & 0xFF;
+            }
+        }
+        return argb;
+    }
+
+    private static void filterRow(int[] source, int channels, Taps taps, int[] row) {
+        int round = 1 << (HORIZONTAL_SHIFT - 1);
+        for (int x = 0; x < taps.first.length; x++) {
+            int from = taps.first[x] * channels;
+            int weights = x * taps.stride;
+            if (channels == 3) {
+                // The common color layout, its three channels summed in one pass over the weights
+                int b = 0;
+                int g = 0;
+                int r = 0;
+                for (int k = 0; k < taps.count[x]; k++) {
+                    int weight = taps.weights[weights + k];
+                    int at = from + k * 3;
+                    b += weight * source[at];
+                    g += weight * source[at + 1];
+                    r += weight * source[at + 2];
+                }
+                row[x * 3] = (b + round) >> HORIZONTAL_SHIFT;
+                row[x * 3 + 1] = (g + round) >> HORIZONTAL_SHIFT;
+                row[x * 3 + 2] = (r + round) >> HORIZONTAL_SHIFT;
+                continue;
+            }
+            for (int c = 0; c < channels; c++) {
+                int sum = 0;
+                for (int k = 0; k < taps.count[x]; k++) {
+                    sum += taps.weights[weights + k] * source[from + k * channels + c];
+                }
+                row[x * channels + c] = (sum + round) >> HORIZONTAL_SHIFT;
+            }
+        }
+    }
+
+    /**
+     * Computes the filter weights of one axis, normalized to sum to exactly one in fixed point.
+     * Near the edges, only the source pixels inside the image are used.
+     */
+    private static Taps taps(int sourceSize, int size) {
+        double scale = Math.max(1, (double) sourceSize / size);
+        double radius = FILTER_RADIUS * scale;
+        int stride = (int) Math.ceil(radius * 2) + 1;
+        int[] first = new int[size];
+        int[] count = new int[size];
+        int[] weights = new int[size * stride];
+        double[] values = new double[stride];
+        for (int i = 0; i < size; i++) {
+            double center = (i + 0.5) * sourceSize / size - 0.5;
+            int left = Math.max(0, (int) Math.ceil(center - radius));
+            int right = Math.min(sourceSize - 1, (int) Math.floor(center + radius));
+            int n = Math.min(stride, right - left + 1);
+            double total = 0;
+            for (int k = 0; k < n; k++) {
+                values[k] = catmullRom((left + k - center) / scale);
+                total += values[k];
+            }
+            // Rounding leftovers go to the largest weight, so flat areas keep their exact value
+            int sum = 0;
+            int largest = 0;
+            for (int k = 0; k < n; k++) {
+                int weight = (int) Math.round(values[k] / total * (1 << WEIGHT_BITS));
+                weights[i * stride + k] = weight;
+                sum += weight;
+                if (weight > weights[i * stride + largest]) {
+                    largest = k;
+                }
+            }
+            weights[i * stride + largest] += (1 << WEIGHT_BITS) - sum;
+            first[i] = left;
+            count[i] = n;
+        }
+        return new Taps(first, count, weights, stride);
+    }
+
+    private static double catmullRom(double x) {
+        x = Math.abs(x);
+        if (x < 1) {
+            return 1.5 * x * x * x - 2.5 * x * x + 1;
+        }
+        if (x < 2) {
+            return -0.5 * x * x * x + 2.5 * x * x - 4 * x + 2;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,298 @@
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decodes an area of a long image from top to bottom, a few rows at a time, reading the
+ * image data only once. ImageIO readers restart from the top of the image for every source
+ * region, so decoding a strip band after band with them takes quadratic time: instead,
+ * sequential JPEGs are cut into small JPEGs on their coefficients ({@link LosslessJpeg.Bands})
+ * and non-interlaced 8-bit PNGs are inflated row by row. Other images fall back to region
+ * reads restarting from the top (progressive JPEGs, where the decoder also keeps the
+ * coefficients of the whole image).
+ */
+class StripReader implements AutoCloseable {
+
+    // Pixels of a JPEG cut and decoded at once: their coefficients are held until they are decoded
+    private static final int JPEG_CHUNK_PIXELS = 1024 * 1024;
+
+    private final byte[] bytes;
+    private final Rectangle area;
+    private final LosslessJpeg.Bands jpeg;
+    private final PngRows png;
+    // Next row of the image to decode
+    private int next;
+
+    /**
+     * @param area The area of the image to decode, decoded from its top row
+     */
+    StripReader(byte[] bytes, Rectangle area) throws IOException {
+        this.bytes = bytes;
+        this.area = area;
+        this.jpeg = LosslessJpeg.bands(bytes);
+        this.png = jpeg == null ? PngRows.open(bytes) : null;
+        this.next = area.y;
+        if (jpeg != null && (jpeg.getWidth() < area.x + area.width || jpeg.getHeight() < area.y + area.height)) {
+            throw new IOException("Area outside of the image");
+        }
+    }
+
+    /**
+     * Creates an image as wide as the area, of the type its rows are decoded in.
+     *
+     * @param pool Pool providing the image, or null to allocate a new one
+     * @return The image, or null if the image cannot be decoded
+     */
+    BufferedImage createBand(int height, RasterPool pool) throws IOException {
+        if (png != null) {
+            return pool != null ? pool.acquire(area.width, height, png.imageType)
+                                : new BufferedImage(area.width, height, png.imageType);
+        }
+        return ImageCodecs.createImage(bytes, area.width, height, pool);
+    }
+
+    /**
+     * Decodes the rows of the area following the ones decoded by the previous call.
+     *
+     * @param band Image from {@link #createBand} receiving the rows
+     * @param bandY Row of the image receiving the first decoded row
+     */
+    void readRows(BufferedImage band, int bandY, int rows) throws IOException {
+        rows = Math.min(rows, area.y + area.height - next);
+        if (jpeg != null) {
+            int chunkRows = Math.max(1, JPEG_CHUNK_PIXELS / Math.max(1, jpeg.getWidth()));
+            for (int done = 0; done < rows; done += chunkRows) {
+                int y = next + done;
+                int count = Math.min(chunkRows, rows - done);
+                byte[] chunk;
+                try {
+                    chunk = jpeg.band(y, count);
+                } catch (IllegalStateException e) {
+                    throw new IOException("Corrupt JPEG data at row " + y, e);
+                }
+                Rectangle region = new Rectangle(area.x, y - jpeg.bandTop(y), area.width, count);
+                if (!ImageCodecs.readInto(chunk, region, band, bandY + done)) {
+                    throw new IOException("No reader for the JPEG rows");
+                }
+            }
+        } else if (png != null) {
+            png.skipTo(next);
+            WritableRaster raster = band.getRaster();
+            byte[] pixels = new byte[area.width * png.channels];
+            for (int r = 0; r < rows; r++) {
+                byte[] row = png.readRow();
+                System.arraycopy(row, 1 + area.x * png.channels, pixels, 0, pixels.length);
+                // Samples are in the band order of the image type (gray, RGB or RGBA), like the PNG ones
+                raster.setDataElements(0, bandY + r, area.width, 1, pixels);
+            }
+        } else {
+            BufferedImage rowsImage = ImageCodecs.read(bytes, new Rectangle(area.x, next, area.width, rows), null);
+            if (rowsImage == null || rowsImage.getHeight() < rows) {
+                throw new IOException("Failed to decode rows " + next + " to " + (next + rows));
+            }
+            band.getRaster().setDataElements(0, bandY, rowsImage.getRaster());
+        }
+        next += rows;
+    }
+
+    @Override
+    public void close() {
+        if (png != null) {
+            png.inflater.end();
+        }
+    }
+
+    /**
+     * Inflates the rows of a non-interlaced 8-bit gray, RGB or RGBA PNG one after the other,
+     * without transparency chunk (the pixel types of the JDK reader for these are then known).
+     */
+    private static final class PngRows {
+        private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+        private final byte[] data;
+        final int channels;
+        final int imageType;
+        final Inflater inflater = new Inflater();
+        // Start of the chunk following the image data fed to the inflater
+        private int nextChunk;
+        // Rows with their filter byte, the previous one being all zeros before the first row
+        private byte[] row;
+        private byte[] previous;
+        private int rowIndex = 0;
+
+        private PngRows(byte[] data, int width, int channels, int imageType, int firstData) {
+            this.data = data;
+            this.channels = channels;
+            this.imageType = imageType;
+            this.nextChunk = firstData;
+            this.row = new byte[1 + width * channels];
+            this.previous = new byte[row.length];
+        }
+
+        /**
+         * @return The rows reader, or null if the data is not a PNG of a supported kind
+         */
+        static PngRows open(byte[] data) {
+            if (data.length < 33) {
+                return null;
+            }
+            for (int i = 0; i < SIGNATURE.length; i++) {
+                if (data[i] != SIGNATURE[i]) {
+                    return null;
+                }
+            }
+            // IHDR comes first: width, height, bit depth, color type, compression, filter and interlace methods
+            if (!chunkType(data, 12).equals("IHDR")) {
+                return null;
+            }
+            int width = readInt(data, 16);
+            int depth = data[24] & 0xFF;
+            int colorType = data[25] & 0xFF;
+            int interlace = data[28] & 0xFF;
+            int channels;
+            int imageType;
+            if (colorType == 0) {
+                channels = 1;
+                imageType = BufferedImage.TYPE_BYTE_GRAY;
+            } else if (colorType == 2) {
+                channels = 3;
+                imageType = BufferedImage.TYPE_3BYTE_BGR;
+            } else if (colorType == 6) {
+                channels = 4;
+                imageType = BufferedImage.TYPE_4BYTE_ABGR;
+            } else {
+                return null;
+            }
+            if (depth != 8 || interlace != 0 || width <= 0) {
+                return null;
+            }
+            int pos = 8;
+            while (pos + 8 <= data.length) {
+                int length = readInt(data, pos);
+                String type = chunkType(data, pos + 4);
+                if (length < 0 || type.equals("tRNS") || type.equals("IEND")) {
+                    return null;
+                }
+                if (type.equals("IDAT")) {
+                    return new PngRows(data, width, channels, imageType, pos);
+                }
+                pos += 12 + length;
+            }
+            return null;
+        }
+
+        void skipTo(int y) throws IOException {
+            while (rowIndex < y) {
+                readRow();
+            }
+        }
+
+        /**
+         * Inflates and unfilters the next row.
+         *
+         * @return The row, its filter byte first, valid until the next call
+         */
+        byte[] readRow() throws IOException {
+            byte[] filtered = previous;
+            previous = row;
+            row = filtered;
+            inflate(row);
+            unfilter(row, previous, channels);
+            rowIndex++;
+            return row;
+        }
+
+        private void inflate(byte[] out) throws IOException {
+            int done = 0;
+            try {
+                while (done < out.length) {
+                    int count = inflater.inflate(out, done, out.length - done);
+                    done += count;
+                    if (count == 0) {
+                        if (inflater.finished() || inflater.needsDictionary()) {
+                            throw new IOException("Truncated PNG data at row " + rowIndex);
+                        }
+                        if (inflater.needsInput()) {
+                            feed();
+                        }
+                    }
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt PNG data at row " + rowIndex, e);
+            }
+        }
+
+        /**
+         * Gives the next image data chunk to the inflater.
+         */
+        private void feed() throws IOException {
+            if (nextChunk + 8 > data.length || !chunkType(data, nextChunk + 4).equals("IDAT")) {
+                throw new IOException("Truncated PNG data at row " + rowIndex);
+            }
+            int length = readInt(data, nextChunk);
+            if (length < 0 || nextChunk + 8 + length > data.length) {
+                throw new IOException("Truncated PNG data at row " + rowIndex);
+            }
+            inflater.setInput(data, nextChunk + 8, length);
+            nextChunk += 12 + length;
+        }
+
+        private static void unfilter(byte[] row, byte[] previous, int bpp) throws IOException {
+            int filter = row[0];
+            switch (filter) {
+                case 0:
+                    break;
+                case 1:
+                    for (int i = 1 + bpp; i < row.length; i++) {
+                        row[i] += row[i - bpp];
+                    }
+                    break;
+                case 2:
+                    for (int i = 1; i < row.length; i++) {
+                        row[i] += previous[i];
+                    }
+                    break;
+                case 3:
+                    for (int i = 1; i < row.length; i++) {
+                        int left = i > bpp ? row[i - bpp] & 0xFF : 0;
+                        row[i] += (left + (previous[i] & 0xFF)) >> 1;
+                    }
+                    break;
+                case 4:
+                    for (int i = 1; i < row.length; i++) {
+                        int left = i > bpp ? row[i - bpp] & 0xFF : 0;
+                        int up = previous[i] & 0xFF;
+                        int upLeft = i > bpp ? previous[i - bpp] & 0xFF : 0;
+                        row[i] += paeth(left, up, upLeft);
+                    }
+                    break;
+                default:
+                    throw new IOException("Unknown PNG filter " + filter);
+            }
+        }
+
+        private static int paeth(int left, int up, int upLeft) {
+            int estimate = left + up - upLeft;
+            int toLeft = Math.abs(estimate - left);
+            int toUp = Math.abs(estimate - up);
+            int toUpLeft = Math.abs(estimate - upLeft);
+            if (toLeft <= toUp && toLeft <= toUpLeft) {
+                return left;
+            }
+            return toUp <= toUpLeft ? up : upLeft;
+        }
+
+        private static int readInt(byte[] data, int pos) {
+            return ((data[pos] & 0xFF) << 24) | ((data[pos + 1] & 0xFF) << 16)
+                   | ((data[pos + 2] & 0xFF) << 8) | (data[pos + 3] & 0xFF);
+        }
+
+        private static String chunkType(byte[] data, int pos) {
+            return new String(data, pos, 4, StandardCharsets.US_ASCII);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+import java.awt.image.BufferedImage;
+
+/**
+ * Chooses where long vertical strips (webtoons) are cut into pages: on a blank row,
+ * the gutter between two panels, as close as possible to the target page height.
+ */
+class StripSlicer {
+
+    // Largest luminance difference between the pixels of a row still considered blank (JPEG noise)
+    private static final int BLANK_ROW_TOLERANCE = 24;
+    // Pixels of the band a strip is decoded into: several pages when they are narrow, so the
+    // rows left below the last cut are moved up less often, while memory stays bounded
+    private static final int BAND_PIXELS = 4 * 1024 * 1024;
+
+    private StripSlicer() {
+    }
+
+    /**
+     * Smallest page height a cut may produce, for a target height.
+     */
+    static int minPageHeight(int targetHeight) {
+        return targetHeight - targetHeight / 4;
+    }
+
+    /**
+     * Largest page height a cut may produce, for a target height. Strips up to this
+     * height are kept as one page.
+     */
+    static int maxPageHeight(int targetHeight) {
+        return targetHeight + targetHeight / 4;
+    }
+
+    /**
+     * Height of the bands a strip of the given width is decoded in: several pages when
+     * they are narrow, never less than the largest page.
+     */
+    static int bandHeight(int width, int targetHeight) {
+        return Math.max(maxPageHeight(targetHeight), BAND_PIXELS / Math.max(1, width));
+    }
+
+    /**
+     * Finds the row at which the page starting at the top of a band ends.
+     * The middle of the run of blank rows closest to the target height is chosen;
+     * without any blank row in range, the band is cut at the target height.
+     *
+     * @param band The top of the remaining strip, at least {@link #maxPageHeight} rows high
+     *             (only these rows are looked at)
+     * @param targetHeight The preferred page height
+     * @return The height of the page, between {@link #minPageHeight} and {@link #maxPageHeight}
+     */
+    static int findCut(BufferedImage band, int targetHeight) {
+        int from = minPageHeight(targetHeight);
+        int to = Math.min(maxPageHeight(targetHeight), band.getHeight());
+        int[] row = new int[band.getWidth()];
+
+        int bestCut = -1;
+        int bestDistance = Integer.MAX_VALUE;
+        int runStart = -1;
+        for (int y = from; y <= to; y++) {
+            boolean blank = y < to && isBlankRow(band, y, row);
+            if (blank && runStart < 0) {
+                runStart = y;
+            } else if (!blank && runStart >= 0) {
+                int cut = (runStart + y) / 2;
+                int distance = Math.abs(cut - targetHeight);
+                if (distance < bestDistance) {
+                    bestCut = cut;
+                    bestDistance = distance;
+                }
+                runStart = -1;
+            }
+        }
+        return bestCut > 0 ? bestCut : Math.min(targetHeight, band.getHeight());
+    }
+
+    private static boolean isBlankRow(BufferedImage band, int y, int[] row) {
+        int count = RasterKernels.luminanceRow(band, y, 1, row);
+        return RasterKernels.isUniform(row, count, BLANK_ROW_TOLERANCE);
+    }
+}
@@ -0,0 +1,228 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads the central directory of a ZIP/CBZ archive and gives access to the raw (still compressed)
+ * data of its entries, so they can be copied into another archive without being inflated.
+ */
+class ZipArchiveReader implements Closeable {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final int END_SIZE = 22;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+
+    /**
+     * One entry of the central directory.
+     */
+    static class Entry {
+        final String name;
+        final int flags;
+        final int method;
+        final int dosTime;
+        final long crc;
+        final long compressedSize;
+        final long size;
+        final long localHeaderOffset;
+
+        Entry(String name, int flags, int method, int dosTime, long crc, long compressedSize, long size,
+              long localHeaderOffset) {
+            this.name = name;
+            this.flags = flags;
+            this.method = method;
+            this.dosTime = dosTime;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        boolean isEncrypted() {
+            return (flags & 1) != 0;
+        }
+    }
+
+    private final FileChannel channel;
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    ZipArchiveReader(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            readCentralDirectory();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the entry with the given name, or null if there is none.
+     */
+    Entry getEntry(String name) {
+        return entries.get(name);
+    }
+
+    /**
+     * Opens the compressed data of an entry, exactly as stored in the archive.
+     */
+    InputStream openRaw(Entry entry) throws IOException {
+        ByteBuffer header = read(entry.localHeaderOffset, 30);
+        if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+            throw new IOException("Invalid local header for zip entry: " + entry.name);
+        }
+        long dataOffset = entry.localHeaderOffset + 30 + (header.getShort(26) & 0xFFFF) + (header.getShort(28) & 0xFFFF);
+        return new RegionInputStream(dataOffset, entry.compressedSize);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void readCentralDirectory() throws IOException {
+        long fileSize = channel.size();
+        int tailSize = (int) Math.min(fileSize, END_SIZE + MAX_COMMENT_SIZE);
+        ByteBuffer tail = read(fileSize - tailSize, tailSize);
+
+        int endPos = -1;
+        for (int i = tailSize - END_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_SIGNATURE) {
+                endPos = i;
+                break;
+            }
+        }
+        if (endPos < 0) {
+            throw new IOException("Not a ZIP archive (no end of central directory)");
+        }
+
+        long entryCount = tail.getShort(endPos + 10) & 0xFFFF;
+        long directorySize = tail.getInt(endPos + 12) & 0xFFFFFFFFL;
+        long directoryOffset = tail.getInt(endPos + 16) & 0xFFFFFFFFL;
+
+        // ZIP64 archives keep the real values in a separate record, found through its locator
+        long locatorPos = fileSize - tailSize + endPos - 20;
+        if ((entryCount == 0xFFFF || directorySize == 0xFFFFFFFFL || directoryOffset == 0xFFFFFFFFL) && locatorPos >= 0) {
+            ByteBuffer locator = read(locatorPos, 20);
+            if (locator.getInt(0) == ZIP64_LOCATOR_SIGNATURE) {
+                ByteBuffer zip64End = read(locator.getLong(8), 56);
+                if (zip64End.getInt(0) != ZIP64_END_SIGNATURE) {
+                    throw new IOException("Invalid ZIP64 end of central directory");
+                }
+                entryCount = zip64End.getLong(32);
+                directorySize = zip64End.getLong(40);
+                directoryOffset = zip64End.getLong(48);
+            }
+        }
+
+        if (directorySize > Integer.MAX_VALUE) {
+            throw new IOException("ZIP central directory too large");
+        }
+        ByteBuffer directory = read(directoryOffset, (int) directorySize);
+        int pos = 0;
+        for (long n = 0; n < entryCount; n++) {
+            if (directory.getInt(pos) != CENTRAL_HEADER_SIGNATURE) {
+                throw new IOException("Invalid ZIP central directory");
+            }
+            int flags = directory.getShort(pos + 8) & 0xFFFF;
+            int method = directory.getShort(pos + 10) & 0xFFFF;
+            int dosTime = directory.getInt(pos + 12);
+            long crc = directory.getInt(pos + 16) & 0xFFFFFFFFL;
+            long compressedSize = directory.getInt(pos + 20) & 0xFFFFFFFFL;
+            long size = directory.getInt(pos + 24) & 0xFFFFFFFFL;
+            int nameLength = directory.getShort(pos + 28) & 0xFFFF;
+            int extraLength = directory.getShort(pos + 30) & 0xFFFF;
+            int commentLength = directory.getShort(pos + 32) & 0xFFFF;
+            long localHeaderOffset = directory.getInt(pos + 42) & 0xFFFFFFFFL;
+
+            byte[] nameBytes = new byte[nameLength];
+            directory.position(pos + 46);
+            directory.get(nameBytes);
+            String name = new String(nameBytes, StandardCharsets.UTF_8);
+
+            // ZIP64 extra field: the values that overflowed, in this order
+            int extraPos = pos + 46 + nameLength;
+            int extraEnd = extraPos + extraLength;
+            while (extraPos + 4 <= extraEnd) {
+                int id = directory.getShort(extraPos) & 0xFFFF;
+                int length = directory.getShort(extraPos + 2) & 0xFFFF;
+                if (id == ZIP64_EXTRA_ID) {
+                    int valuePos = extraPos + 4;
+                    if (size == 0xFFFFFFFFL && valuePos + 8 <= extraEnd) {
+                        size = directory.getLong(valuePos);
+                        valuePos += 8;
+                    }
+                    if (compressedSize == 0xFFFFFFFFL && valuePos + 8 <= extraEnd) {
+                        compressedSize = directory.getLong(valuePos);
+                        valuePos += 8;
+                    }
+                    if (localHeaderOffset == 0xFFFFFFFFL && valuePos + 8 <= extraEnd) {
+                        localHeaderOffset = directory.getLong(valuePos);
+                    }
+                }
+                extraPos += 4 + length;
+            }
+
+            entries.put(name, new Entry(name, flags, method, dosTime, crc, compressedSize, size, localHeaderOffset));
+            pos += 46 + nameLength + extraLength + commentLength;
+        }
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of ZIP archive");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Stream over a region of the archive, using positional reads so several can be open at once.
+     */
+    private class RegionInputStream extends InputStream {
+        private long position;
+        private long remaining;
+
+        RegionInputStream(long position, long length) {
+            this.position = position;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, (int) Math.min(len, remaining));
+            int count = channel.read(buffer, position);
+            if (count < 0) {
+                throw new EOFException("Unexpected end of ZIP archive");
+            }
+            position += count;
+            remaining -= count;
+            return count;
+        }
+    }
+}
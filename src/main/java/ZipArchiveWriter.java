@@ -0,0 +1,288 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Minimal ZIP writer that, unlike ZipOutputStream, can also take entries copied raw
+ * (still compressed, with their CRC and sizes) from another archive, and chooses
+ * the compression of each entry through a {@link ZipCompressionPolicy}.
+ * Sizes are always known up front, so no data descriptors are written. Like
+ * ZipOutputStream, it refuses to write two entries of the same name.
+ */
+class ZipArchiveWriter implements Closeable {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final int UTF8_FLAG = 0x800;
+    private static final int DATA_DESCRIPTOR_FLAG = 0x8;
+    private static final long ZIP64_LIMIT = 0xFFFFFFFFL;
+
+    private static class WrittenEntry {
+        final byte[] name;
+        final int flags;
+        final int method;
+        final int dosTime;
+        final long crc;
+        final long compressedSize;
+        final long size;
+        final long offset;
+
+        WrittenEntry(byte[] name, int flags, int method, int dosTime, long crc, long compressedSize, long size, long offset) {
+            this.name = name;
+            this.flags = flags;
+            this.method = method;
+            this.dosTime = dosTime;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.offset = offset;
+        }
+    }
+
+    private final OutputStream out;
+    private final ZipCompressionPolicy policy;
+    private final List<WrittenEntry> entries = new ArrayList<>();
+    private final Set<String> names = new HashSet<>();
+    private final Deflater deflater;
+    private final byte[] buffer = new byte[64 * 1024];
+    private long written = 0;
+
+    ZipArchiveWriter(OutputStream out, ZipCompressionPolicy policy) {
+        this.out = new BufferedOutputStream(out, buffer.length);
+        this.policy = policy;
+        this.deflater = new Deflater(policy.level, true);
+    }
+
+    /**
+     * Adds an entry, stored or deflated as decided by the compression policy.
+     *
+     * @throws ZipException If an entry of the same name was already written
+     */
+    void putEntry(String name, byte[] data) throws IOException {
+        checkName(name);
+        CRC32 crc = new CRC32();
+        crc.update(data);
+
+        ZipCompressionPolicy.Decision decision = policy.decide(name);
+        if (decision != ZipCompressionPolicy.Decision.STORE) {
+            deflater.reset();
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 2 + 64);
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                compressed.write(buffer, 0, count);
+            }
+
+            if (decision == ZipCompressionPolicy.Decision.DEFLATE
+                    || policy.keepSample(name, data.length, compressed.size())) {
+                writeEntry(name, UTF8_FLAG, ZipEntry.DEFLATED, currentDosTime(), crc.getValue(), data.length,
+                           compressed.size(), compressed::writeTo);
+                policy.countEntry(false);
+                return;
+            }
+        }
+
+        writeEntry(name, UTF8_FLAG, ZipEntry.STORED, currentDosTime(), crc.getValue(), data.length,
+                   data.length, target -> target.write(data));
+        policy.countEntry(true);
+    }
+
+    /**
+     * Adds an entry by copying the compressed data of a source entry as is.
+     *
+     * @param name The name of the new entry
+     * @param source The source entry, giving the method, CRC and sizes
+     * @param rawData The compressed data of the source entry
+     * @throws ZipException If an entry of the same name was already written
+     */
+    void putRawEntry(String name, ZipArchiveReader.Entry source, InputStream rawData) throws IOException {
+        checkName(name);
+        int flags = (source.flags & ~DATA_DESCRIPTOR_FLAG) | UTF8_FLAG;
+        writeEntry(name, flags, source.method, source.dosTime, source.crc, source.size, source.compressedSize,
+                   target -> {
+                       long remaining = source.compressedSize;
+                       while (remaining > 0) {
+                           int count = rawData.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                           if (count < 0) {
+                               throw new IOException("Truncated zip entry: " + source.name);
+                           }
+                           target.write(buffer, 0, count);
+                           remaining -= count;
+                       }
+                   });
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            long directoryOffset = written;
+            for (WrittenEntry entry : entries) {
+                writeCentralHeader(entry);
+            }
+            long directorySize = written - directoryOffset;
+
+            boolean zip64 = entries.size() >= 0xFFFF || directoryOffset >= ZIP64_LIMIT || directorySize >= ZIP64_LIMIT;
+            if (zip64) {
+                long zip64EndOffset = written;
+                writeInt(ZIP64_END_SIGNATURE);
+                writeLong(44); // Size of the remaining record
+                writeShort(45);
+                writeShort(45);
+                writeInt(0);
+                writeInt(0);
+                writeLong(entries.size());
+                writeLong(entries.size());
+                writeLong(directorySize);
+                writeLong(directoryOffset);
+
+                writeInt(ZIP64_LOCATOR_SIGNATURE);
+                writeInt(0);
+                writeLong(zip64EndOffset);
+                writeInt(1);
+            }
+
+            writeInt(END_SIGNATURE);
+            writeShort(0);
+            writeShort(0);
+            writeShort(Math.min(entries.size(), 0xFFFF));
+            writeShort(Math.min(entries.size(), 0xFFFF));
+            writeInt(Math.min(directorySize, ZIP64_LIMIT));
+            writeInt(Math.min(directoryOffset, ZIP64_LIMIT));
+            writeShort(0);
+            out.flush();
+        } finally {
+            deflater.end();
+            out.close();
+        }
+    }
+
+    /**
+     * Fails before any work on an entry whose name was already written.
+     */
+    private void checkName(String name) throws ZipException {
+        if (names.contains(name)) {
+            throw new ZipException("duplicate entry: " + name);
+        }
+    }
+
+    private interface DataSource {
+        void writeTo(OutputStream target) throws IOException;
+    }
+
+    private void writeEntry(String name, int flags, int method, int dosTime, long crc, long size, long compressedSize,
+                            DataSource data) throws IOException {
+        if (size >= ZIP64_LIMIT || compressedSize >= ZIP64_LIMIT) {
+            throw new IOException("Zip entry too large: " + name);
+        }
+        if (!names.add(name)) {
+            throw new ZipException("duplicate entry: " + name);
+        }
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        WrittenEntry entry = new WrittenEntry(nameBytes, flags, method, dosTime, crc, compressedSize, size, written);
+
+        writeInt(LOCAL_HEADER_SIGNATURE);
+        writeShort(20);
+        writeShort(flags);
+        writeShort(method);
+        writeInt(dosTime);
+        writeInt(crc);
+        writeInt(compressedSize);
+        writeInt(size);
+        writeShort(nameBytes.length);
+        writeShort(0);
+        writeBytes(nameBytes);
+
+        long before = written;
+        data.writeTo(new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                written++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                written += len;
+            }
+        });
+        if (written - before != compressedSize) {
+            throw new IOException("Unexpected compressed size for zip entry: " + name);
+        }
+        entries.add(entry);
+    }
+
+    private void writeCentralHeader(WrittenEntry entry) throws IOException {
+        boolean zip64Offset = entry.offset >= ZIP64_LIMIT;
+        writeInt(CENTRAL_HEADER_SIGNATURE);
+        writeShort(zip64Offset ? 45 : 20);
+        writeShort(zip64Offset ? 45 : 20);
+        writeShort(entry.flags);
+        writeShort(entry.method);
+        writeInt(entry.dosTime);
+        writeInt(entry.crc);
+        writeInt(entry.compressedSize);
+        writeInt(entry.size);
+        writeShort(entry.name.length);
+        writeShort(zip64Offset ? 12 : 0);
+        writeShort(0);
+        writeShort(0);
+        writeShort(0);
+        writeInt(0);
+        writeInt(zip64Offset ? ZIP64_LIMIT : entry.offset);
+        writeBytes(entry.name);
+        if (zip64Offset) {
+            writeShort(ZIP64_EXTRA_ID);
+            writeShort(8);
+            writeLong(entry.offset);
+        }
+    }
+
+    private static int currentDosTime() {
+        LocalDateTime now = LocalDateTime.now();
+        if (now.getYear() < 1980) {
+            now = LocalDateTime.of(1980, 1, 1, 0, 0);
+        }
+        return (now.getYear() - 1980) << 25 | now.getMonthValue() << 21 | now.getDayOfMonth() << 16
+                | now.getHour() << 11 | now.getMinute() << 5 | now.getSecond() >> 1;
+    }
+
+    private void writeShort(int value) throws IOException {
+        out.write(value & 0xFF);
+        out.write((value >>> 8) & 0xFF);
+        written += 2;
+    }
+
+    private void writeInt(long value) throws IOException {
+        writeShort((int) (value & 0xFFFF));
+        writeShort((int) ((value >>> 16) & 0xFFFF));
+    }
+
+    private void writeLong(long value) throws IOException {
+        writeInt(value & 0xFFFFFFFFL);
+        writeInt(value >>> 32);
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        out.write(bytes);
+        written += bytes.length;
+    }
+}
@@ -0,0 +1,92 @@
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Decides how each entry of an output ZIP/CBZ archive is compressed.
+ * One instance is used per archive, so sampling decisions are made per volume.
+ */
+class ZipCompressionPolicy {
+
+    // Image formats whose data is already compressed: deflating them again saves next to nothing
+    private static final String[] COMPRESSED_EXTENSIONS = {".jpg", ".jpeg", ".png", ".gif", ".webp"};
+    // Deflating a sample must save at least this fraction of its size to be kept for the volume
+    private static final double MIN_SAMPLE_SAVING = 0.05;
+
+    enum Decision { STORE, DEFLATE, SAMPLE }
+
+    final int level;
+    private final int mode;
+    // Sampling outcome per file extension: true if deflating is worth it
+    private final Map<String, Boolean> samples = new HashMap<>();
+    private int storedEntries = 0;
+    private int deflatedEntries = 0;
+
+    ZipCompressionPolicy(ProcessingOptions options) {
+        this.mode = options.zipCompression;
+        this.level = options.deflateLevel;
+    }
+
+    /**
+     * Tells how an entry should be written. SAMPLE means the entry must be deflated and the
+     * result reported through {@link #keepSample}, which decides for the following entries too.
+     */
+    Decision decide(String name) {
+        if (level == 0) {
+            return Decision.STORE;
+        }
+        switch (mode) {
+            case ProcessingOptions.ZIP_STORE_COMPRESSED_IMAGES:
+                return isCompressedImage(name) ? Decision.STORE : Decision.DEFLATE;
+            case ProcessingOptions.ZIP_SAMPLE_PER_VOLUME:
+                Boolean worthIt = samples.get(extension(name));
+                if (worthIt == null) {
+                    return Decision.SAMPLE;
+                }
+                return worthIt ? Decision.DEFLATE : Decision.STORE;
+            default:
+                return Decision.DEFLATE;
+        }
+    }
+
+    /**
+     * Records the outcome of deflating a sampled entry.
+     *
+     * @return true if the deflated data should be kept, false if the entry should be stored
+     */
+    boolean keepSample(String name, long size, long compressedSize) {
+        boolean worthIt = compressedSize <= size * (1 - MIN_SAMPLE_SAVING);
+        samples.put(extension(name), worthIt);
+        return worthIt;
+    }
+
+    void countEntry(boolean stored) {
+        if (stored) {
+            storedEntries++;
+        } else {
+            deflatedEntries++;
+        }
+    }
+
+    /**
+     * Describes the compression of the entries written so far.
+     */
+    String summary() {
+        return storedEntries + " stored, " + deflatedEntries + " deflated (level " + level + ")";
+    }
+
+    private static boolean isCompressedImage(String name) {
+        String lowerName = name.toLowerCase(Locale.ROOT);
+        for (String ext : COMPRESSED_EXTENSIONS) {
+            if (lowerName.endsWith(ext)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String extension(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? "" : name.substring(dot).toLowerCase(Locale.ROOT);
+    }
+}